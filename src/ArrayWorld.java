@@ -0,0 +1,401 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Structure-of-arrays engine for the wealth distribution simulation.
+ * Runs the same model as {@link World}, drawing random numbers in the same
+ * order so that a given seed produces the same output, but stores patches
+ * and turtles in flat primitive arrays rather than objects.
+ * Patch state is indexed by x * yPatches + y, and turtle state is held in
+ * parallel arrays indexed by turtle id.
+ * In an {@link Ensemble} the patch state of each replicate is a slice of
+ * arrays shared by every replicate, starting at patchBase.
+ */
+public class ArrayWorld extends Simulation {
+    // change in x/y coordinates for one step in each heading, indexed by
+    // Heading.ordinal(): NORTH, EAST, SOUTH, WEST
+    private static final int[] HEADING_DX = {0, 1, 0, -1};
+    private static final int[] HEADING_DY = {1, 0, -1, 0};
+    // headings in the order turtles consider them
+    private static final Heading[] HEADINGS = Heading.values();
+
+    // current amount of grain on each patch
+    private double[] grainHere;
+    // maximum grain each patch can hold
+    private double[] maxGrainHere;
+    // index of patch 0 in grainHere and maxGrainHere
+    private int patchBase;
+    // ensemble holding the patch state, and this world's place in it, or
+    // null when the world holds its own
+    private Ensemble ensemble;
+    private int replicate;
+
+    // current age of each turtle
+    private int[] age;
+    // current wealth of each turtle
+    private int[] wealth;
+    // wealth of each turtle as recorded in the wealth histogram
+    private int[] countedWealth;
+    // current x/y position of each turtle
+    private int[] turtleX;
+    private int[] turtleY;
+    // life expectancy of each turtle
+    private int[] lifeExpectancy;
+    // metabolism of each turtle: how much grain to consume at each tick
+    private int[] metabolism;
+    // vision of each turtle: the number of heading patches it can see
+    private int[] vision;
+    // direction each turtle is heading, as Heading.ordinal()
+    private byte[] heading;
+    // position of each turtle's random number stream, with split streams;
+    // in legacy mode turtles draw from the shared generator
+    private long[] streamState;
+    // generator each thread draws a turtle's stream from, positioned at the
+    // turtle's state for each use
+    private final ThreadLocal<StreamRandom> streams =
+            ThreadLocal.withInitial(() -> new StreamRandom(0, 0));
+
+    // index of which turtles are on each patch
+    private PatchOccupancy occupancy;
+    // sums of grain ahead of each patch, used by turtles to look for grain
+    private GrainPerception perception;
+    // number of turtles holding each wealth value
+    private WealthHistogram wealthHistogram;
+
+    /**
+     * Creates patches and initialises them with grain.
+     */
+    @Override
+    protected void setupPatches() {
+        double[] initialGrain = setupInitialGrain();
+        holdPatches(initialGrain, initialGrain.clone());
+
+        perception = new GrainPerception(xPatches, yPatches);
+        updatePerception();
+    }
+
+    /**
+     * Set up the initial values for the turtle variables
+     */
+    @Override
+    protected void setupTurtles() {
+        age = new int[numPeople];
+        wealth = new int[numPeople];
+        countedWealth = new int[numPeople];
+        turtleX = new int[numPeople];
+        turtleY = new int[numPeople];
+        lifeExpectancy = new int[numPeople];
+        metabolism = new int[numPeople];
+        vision = new int[numPeople];
+        heading = new byte[numPeople];
+        streamState = splitStreams ? new long[numPeople] : null;
+        occupancy = new PatchOccupancy(xPatches, yPatches, numPeople);
+        wealthHistogram = new WealthHistogram();
+
+        for (int i = 0; i < numPeople; i++) {
+            // determine location of new turtle
+            turtleX[i] = random.nextInt(xPatches);
+            turtleY[i] = random.nextInt(yPatches);
+            occupancy.add(i, turtleX[i], turtleY[i]);
+            if (splitStreams) {
+                streamState[i] = StreamRandom.initialState(randomSeed, i);
+            }
+            Random turtleRandom = turtleRandom(i);
+            setInitialTurtleVars(i, turtleRandom);
+            age[i] = turtleRandom.nextInt(lifeExpectancy[i]);
+            saveTurtleRandom(i, turtleRandom);
+            countedWealth[i] = wealth[i];
+            wealthHistogram.add(wealth[i]);
+        }
+    }
+
+    /**
+     * @return turtle i's random number generator: this thread's stream
+     * positioned at the turtle's state, or the shared generator in legacy
+     * mode
+     */
+    private Random turtleRandom(int i) {
+        if (!splitStreams) {
+            return random;
+        }
+        StreamRandom stream = streams.get();
+        stream.setState(streamState[i]);
+        return stream;
+    }
+
+    /**
+     * Store the position of turtle i's stream once it has drawn from it
+     */
+    private void saveTurtleRandom(int i, Random turtleRandom) {
+        if (splitStreams) {
+            streamState[i] = ((StreamRandom) turtleRandom).getState();
+        }
+    }
+
+    /**
+     * Reset a turtle's properties when it dies or is born, drawing random
+     * numbers in the same order as Turtle.setInitialTurtleVars
+     *
+     * @param i      turtle id
+     * @param random turtle's random number generator
+     */
+    private void setInitialTurtleVars(int i, Random random) {
+        age[i] = 0;
+        heading[i] = (byte) random.nextInt(HEADING_DX.length);
+        lifeExpectancy[i] = lifeExpectancyMin +
+                random.nextInt(lifeExpectancyMax - lifeExpectancyMin + 1);
+        metabolism[i] = 1 + random.nextInt(metabolismMax);
+        if (!inheritance || tick == 0) {
+            wealth[i] = metabolism[i] + random.nextInt(WEALTH_BOUND);
+        } else {
+            wealth[i] = metabolism[i] + Math.max(0, wealth[i]);
+        }
+        vision[i] = 1 + random.nextInt(maxVision);
+    }
+
+    /**
+     * Hold patch state in an ensemble's shared arrays from the next setup
+     *
+     * @param ensemble  ensemble running this world
+     * @param replicate this world's place in the ensemble
+     */
+    void joinEnsemble(Ensemble ensemble, int replicate) {
+        this.ensemble = ensemble;
+        this.replicate = replicate;
+    }
+
+    /**
+     * Hold the grain of each patch, in the ensemble's shared arrays if
+     * running in one
+     *
+     * @param grain    grain on each patch
+     * @param maxGrain maximum grain each patch can hold
+     */
+    private void holdPatches(double[] grain, double[] maxGrain) {
+        if (ensemble == null) {
+            grainHere = grain;
+            maxGrainHere = maxGrain;
+            patchBase = 0;
+        } else {
+            patchBase = ensemble.attach(replicate, grain, maxGrain);
+            grainHere = ensemble.getGrainHere();
+            maxGrainHere = ensemble.getMaxGrainHere();
+        }
+    }
+
+    /**
+     * Write the grain of each patch and the state of each turtle to a
+     * checkpoint, in the same layout as World
+     */
+    @Override
+    protected void writeState(CheckpointOutput out) {
+        for (int p = patchBase; p < patchBase + xPatches * yPatches; p++) {
+            out.putDouble(grainHere[p]);
+            out.putDouble(maxGrainHere[p]);
+        }
+        out.putInt(numPeople);
+        for (int i = 0; i < numPeople; i++) {
+            out.putInt(age[i]);
+            out.putInt(wealth[i]);
+            out.putInt(turtleX[i]);
+            out.putInt(turtleY[i]);
+            out.putInt(lifeExpectancy[i]);
+            out.putInt(metabolism[i]);
+            out.putInt(vision[i]);
+            out.putByte(heading[i]);
+            writeTurtleRandom(out, turtleRandom(i));
+        }
+    }
+
+    /**
+     * Restore patches and turtles from a checkpoint
+     */
+    @Override
+    protected void readState(ByteBuffer in) {
+        double[] grain = new double[xPatches * yPatches];
+        double[] maxGrain = new double[xPatches * yPatches];
+        for (int p = 0; p < grain.length; p++) {
+            grain[p] = in.getDouble();
+            maxGrain[p] = in.getDouble();
+        }
+        holdPatches(grain, maxGrain);
+        perception = new GrainPerception(xPatches, yPatches);
+        updatePerception();
+
+        numPeople = in.getInt();
+        age = new int[numPeople];
+        wealth = new int[numPeople];
+        countedWealth = new int[numPeople];
+        turtleX = new int[numPeople];
+        turtleY = new int[numPeople];
+        lifeExpectancy = new int[numPeople];
+        metabolism = new int[numPeople];
+        vision = new int[numPeople];
+        heading = new byte[numPeople];
+        streamState = splitStreams ? new long[numPeople] : null;
+        occupancy = new PatchOccupancy(xPatches, yPatches, numPeople);
+        wealthHistogram = new WealthHistogram();
+        for (int i = 0; i < numPeople; i++) {
+            age[i] = in.getInt();
+            wealth[i] = in.getInt();
+            turtleX[i] = in.getInt();
+            turtleY[i] = in.getInt();
+            lifeExpectancy[i] = in.getInt();
+            metabolism[i] = in.getInt();
+            vision[i] = in.getInt();
+            heading[i] = in.get();
+            saveTurtleRandom(i, readTurtleRandom(in, i));
+            occupancy.add(i, turtleX[i], turtleY[i]);
+            countedWealth[i] = wealth[i];
+            wealthHistogram.add(wealth[i]);
+        }
+    }
+
+    /**
+     * Make turtles turn towards grain, in parallel as in World
+     */
+    @Override
+    protected void turnTowardsGrain() {
+        executor.forEach(numPeople, this::turnTowardsGrain);
+    }
+
+    /**
+     * Harvest grain, columns of patches in parallel
+     */
+    @Override
+    protected void harvest() {
+        executor.forEach(xPatches, x -> {
+            for (int p = x * yPatches; p < (x + 1) * yPatches; p++) {
+                harvest(p);
+            }
+        });
+    }
+
+    /**
+     * Run each turtle, in parallel with a random stream per turtle, as in
+     * World
+     */
+    @Override
+    protected void moveEatAgeDie() {
+        if (splitStreams) {
+            executor.forEach(numPeople, this::moveEatAgeDie);
+        } else {
+            for (int i = 0; i < numPeople; i++) {
+                moveEatAgeDie(i);
+            }
+        }
+        // record where each turtle moved to and its new wealth
+        for (int i = 0; i < numPeople; i++) {
+            occupancy.move(i, turtleX[i], turtleY[i]);
+            wealthHistogram.move(countedWealth[i], wealth[i]);
+            countedWealth[i] = wealth[i];
+        }
+    }
+
+    /**
+     * Grow grain on every patch
+     */
+    @Override
+    protected void growGrain() {
+        executor.forEach(xPatches, x -> {
+            for (int p = patchBase + x * yPatches;
+                 p < patchBase + (x + 1) * yPatches; p++) {
+                if (grainHere[p] < maxGrainHere[p]) {
+                    grainHere[p] = Math.min(grainHere[p] + numGrainGrown,
+                            maxGrainHere[p]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sum the grain left after harvest and growth, for next tick
+     */
+    @Override
+    protected void updatePerception() {
+        perception.update(grainHere, patchBase, executor);
+    }
+
+    /**
+     * Turn turtle i towards the heading with the most grain within its
+     * vision, keeping the first best heading in Heading order on ties
+     *
+     * @param i turtle id
+     */
+    private void turnTowardsGrain(int i) {
+        int bestAmount = 0;
+        Heading bestDirection = Heading.NORTH;
+        for (Heading h : HEADINGS) {
+            int grain = perception.grainAhead(turtleX[i], turtleY[i], h,
+                    vision[i]);
+            if (grain > bestAmount) {
+                bestAmount = grain;
+                bestDirection = h;
+            }
+        }
+        heading[i] = (byte) bestDirection.ordinal();
+    }
+
+    /**
+     * Share the grain on patch p evenly between the turtles on it
+     *
+     * @param p patch index
+     */
+    private void harvest(int p) {
+        int x = p / yPatches;
+        int y = p % yPatches;
+        int numTurtles = occupancy.count(x, y);
+        if (numTurtles == 0) {
+            return;
+        }
+        int share = (int) (grainHere[patchBase + p] / numTurtles);
+        for (int id = occupancy.first(x, y); id != PatchOccupancy.NONE;
+             id = occupancy.next(id)) {
+            wealth[id] += share;
+        }
+        grainHere[patchBase + p] = 0;
+    }
+
+    /**
+     * Move turtle i one patch along its heading, then consume grain, grow
+     * older, and be reborn if it has died. Only changes turtle i; go()
+     * then records the move in the occupancy index and wealth histogram.
+     *
+     * @param i turtle id
+     */
+    private void moveEatAgeDie(int i) {
+        turtleX[i] = wrap(turtleX[i] + HEADING_DX[heading[i]], xPatches);
+        turtleY[i] = wrap(turtleY[i] + HEADING_DY[heading[i]], yPatches);
+
+        wealth[i] -= metabolism[i];
+        age[i]++;
+        if (wealth[i] < 0 || age[i] >= lifeExpectancy[i]) {
+            Random turtleRandom = turtleRandom(i);
+            setInitialTurtleVars(i, turtleRandom);
+            saveTurtleRandom(i, turtleRandom);
+        }
+    }
+
+    /**
+     * @return histogram of the current wealth of each turtle
+     */
+    @Override
+    public WealthHistogram getWealthHistogram() {
+        return wealthHistogram;
+    }
+
+    /**
+     * Copy the grain and number of turtles on each patch
+     */
+    @Override
+    protected void copyFrame(double[] grain, int[] turtles) {
+        System.arraycopy(grainHere, patchBase, grain, 0, grain.length);
+        occupancy.copyCounts(turtles, 0, yPatches);
+    }
+
+}
@@ -0,0 +1,537 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch of simulations concurrently within one JVM: every
+ * combination of properties file, random seed and inheritance flag, or of
+ * the experiments of a {@link Sweep}.  The longest runs start first.
+ * Each run writes the same csv as running World on its own.
+ * Optionally summarises each properties file and inheritance flag across
+ * seeds as the runs finish, with a {@link SeedAggregator}, and runs
+ * consecutive seeds together as an {@link Ensemble}.
+ * Entrypoint for running experiments.
+ */
+public class BatchRunner {
+    // properties given on the command line, applied to every run
+    private final Properties overrides;
+    // number of runs to execute at once
+    private final int workers;
+    // number of consecutive seeds run together as an ensemble, or 1 to run
+    // each seed on its own
+    private int ensembleSize = 1;
+    // probabilities of the quantiles to summarise across seeds, or null to
+    // not summarise
+    private final double[] quantiles;
+    // serves the progress of the sweep, or null
+    private BatchTelemetry telemetry;
+
+    /**
+     * @param overrides properties overriding every run's properties file
+     * @param workers   number of runs to execute at once
+     * @param quantiles probabilities of the quantiles to summarise across
+     *                  seeds, or null to not summarise
+     */
+    public BatchRunner(Properties overrides, int workers,
+                       double[] quantiles) {
+        this.overrides = overrides;
+        this.workers = workers;
+        this.quantiles = quantiles;
+    }
+
+    /**
+     * Usage: BatchRunner {first seed} {last seed} {inheritance flags}
+     * {properties files...} [Key=Value...]
+     * - inheritance flags is a comma separated list, e.g. true,false
+     * - Key=Value pairs override every properties file. Workers=n sets the
+     * number of concurrent runs, defaulting to the number of cores.
+     * - Aggregate=true writes a summary csv across seeds for each
+     * properties file and inheritance flag, of the quantiles given by
+     * Quantiles (default: 0.05,0.25,0.5,0.75,0.95). Output=none then skips
+     * the csv of each run.
+     * - Telemetry=port serves the progress of the sweep over HTTP on the
+     * loopback interface, at /status (port 0 picks a free port).
+     * - Ensemble=k runs k consecutive seeds of each properties file and
+     * inheritance flag together, in lockstep, with Engine=array.
+     */
+    public static void main(String[] args) {
+        Arguments arguments = Arguments.parse("BatchRunner", args);
+        int failures = fromOverrides(arguments.getOverrides()).runExperiments(
+                arguments.getExperiments(), arguments.getFirstSeed(),
+                arguments.getLastSeed(), arguments.getInheritanceFlags());
+        if (failures > 0) {
+            System.err.println(failures + " runs failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Create a runner configured by the Workers, Aggregate, Quantiles,
+     * Telemetry and Ensemble overrides
+     *
+     * @param overrides properties overriding every run's properties file
+     * @return runner
+     */
+    public static BatchRunner fromOverrides(Properties overrides) {
+        int workers = Integer.parseInt(overrides.getProperty("Workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        double[] quantiles = null;
+        if (Boolean.parseBoolean(overrides.getProperty("Aggregate"))) {
+            String[] probabilities = overrides.getProperty("Quantiles",
+                    "0.05,0.25,0.5,0.75,0.95").split(",");
+            quantiles = new double[probabilities.length];
+            for (int q = 0; q < probabilities.length; q++) {
+                quantiles[q] = Double.parseDouble(probabilities[q]);
+            }
+        }
+
+        BatchRunner runner = new BatchRunner(overrides, workers, quantiles);
+        runner.setEnsembleSize(Integer.parseInt(overrides.getProperty(
+                "Ensemble", "1")));
+        if (overrides.containsKey("Telemetry")) {
+            try {
+                runner.setTelemetry(new BatchTelemetry(Integer.parseInt(
+                        overrides.getProperty("Telemetry"))));
+            } catch (IOException e) {
+                System.err.println("Telemetry unavailable: " + e);
+            }
+        }
+        return runner;
+    }
+
+    /**
+     * Report the progress of runs to telemetry
+     *
+     * @param telemetry telemetry to report to, or null
+     */
+    public void setTelemetry(BatchTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Run consecutive seeds together as an ensemble
+     *
+     * @param ensembleSize number of seeds in each ensemble, or 1 to run each
+     *                     seed on its own
+     */
+    public void setEnsembleSize(int ensembleSize) {
+        if (ensembleSize < 1) {
+            throw new IllegalArgumentException("Ensemble must be at least 1");
+        }
+        this.ensembleSize = ensembleSize;
+    }
+
+    /**
+     * Run every combination of properties file, seed and inheritance flag
+     *
+     * @param propertiesFiles  properties files to run
+     * @param firstSeed        first random seed, inclusive
+     * @param lastSeed         last random seed, inclusive
+     * @param inheritanceFlags inheritance settings to run
+     * @return number of runs that failed
+     */
+    public int runAll(List<String> propertiesFiles, int firstSeed,
+                      int lastSeed, List<Boolean> inheritanceFlags) {
+        List<Experiment> experiments = new ArrayList<>();
+        for (String propertiesFile : propertiesFiles) {
+            experiments.add(new Experiment(propertiesFile, null));
+        }
+        return runExperiments(experiments, firstSeed, lastSeed,
+                inheritanceFlags);
+    }
+
+    /**
+     * Run every combination of experiment, seed and inheritance flag on a
+     * work-stealing pool.  Runs are started longest first, as estimated by
+     * estimateCost, so that long runs do not start last and leave the other
+     * workers idle; runs of equal cost start in the order wealth-distrib.bat
+     * queued them.  With an ensemble size, each run is of that many
+     * consecutive seeds.
+     *
+     * @param experiments      experiments to run
+     * @param firstSeed        first random seed, inclusive
+     * @param lastSeed         last random seed, inclusive
+     * @param inheritanceFlags inheritance settings to run
+     * @return number of runs that failed
+     */
+    public int runExperiments(List<Experiment> experiments, int firstSeed,
+                              int lastSeed, List<Boolean> inheritanceFlags) {
+        List<Run> runs = new ArrayList<>();
+        // summary across seeds of each experiment and inheritance flag, by
+        // summary file name
+        Map<String, SeedAggregator> summaries = new LinkedHashMap<>();
+        for (boolean inheritance : inheritanceFlags) {
+            for (Experiment experiment : experiments) {
+                SeedAggregator summary = null;
+                if (quantiles != null) {
+                    summary = new SeedAggregator(firstSeed, quantiles);
+                    summaries.put(getSummaryFileName(experiment.name,
+                            inheritance), summary);
+                }
+                long cost = estimateCost(experiment, overrides);
+                for (int seed = firstSeed; seed <= lastSeed;
+                     seed += ensembleSize) {
+                    int numSeeds = Math.min(ensembleSize,
+                            lastSeed - seed + 1);
+                    runs.add(new Run(experiment, seed, numSeeds, inheritance,
+                            summary, cost * numSeeds));
+                }
+            }
+        }
+        runs.sort(Comparator.comparingLong((Run run) -> run.cost)
+                .reversed());
+
+        int failures = 0;
+        try {
+            if (telemetry != null) {
+                telemetry.queued(runs.stream()
+                        .mapToInt(run -> run.numSeeds).sum());
+            }
+            ExecutorService pool = Executors.newWorkStealingPool(workers);
+            List<Future<?>> futures = new ArrayList<>();
+            for (Run run : runs) {
+                futures.add(pool.submit(() -> {
+                    runOne(run);
+                    return null;
+                }));
+            }
+            pool.shutdown();
+
+            // wait for every run, counting those that failed; every seed
+            // of a failed ensemble fails
+            for (int r = 0; r < runs.size(); r++) {
+                try {
+                    futures.get(r).get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failures += runs.get(r).numSeeds;
+                }
+            }
+        } finally {
+            if (telemetry != null) {
+                telemetry.stop();
+            }
+        }
+
+        for (Map.Entry<String, SeedAggregator> summary :
+                summaries.entrySet()) {
+            System.out.println("Output summary: " + summary.getKey());
+            try {
+                summary.getValue().writeCsv(Paths.get(summary.getKey()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Estimate the work of one run of an experiment, relative to others:
+     * each tick visits every patch and every turtle, turtles looking
+     * MaxVision patches in each direction.  Runs from checkpoints, whose
+     * properties are only read once restored, are estimated as 0.
+     *
+     * @param experiment experiment to estimate
+     * @param overrides  properties overriding every run's properties file
+     * @return estimated cost of a run
+     */
+    static long estimateCost(Experiment experiment, Properties overrides) {
+        if (experiment.propertiesFile.endsWith(
+                Simulation.CHECKPOINT_EXTENSION)) {
+            return 0;
+        }
+        try {
+            Properties properties = Simulation.loadProperties(
+                    experiment.propertiesFile, experiment.overrides(overrides));
+            long patches = Long.parseLong(properties.getProperty("XPatches"))
+                    * Long.parseLong(properties.getProperty("YPatches"));
+            long turtleWork = Long.parseLong(properties.getProperty(
+                    "NumPeople")) * (4 * Long.parseLong(
+                    properties.getProperty("MaxVision")) + 1);
+            return Long.parseLong(properties.getProperty("MaxTicks")) *
+                    (patches + turtleWork);
+        } catch (IOException | RuntimeException e) {
+            // the run reports the problem itself when it starts
+            return 0;
+        }
+    }
+
+    /**
+     * @return name of the csv summarising an experiment and inheritance
+     * flag across seeds
+     */
+    private static String getSummaryFileName(String name,
+                                             boolean inheritance) {
+        if (inheritance) {
+            name += "-inheritance";
+        }
+        return name + "-summary.csv";
+    }
+
+    /**
+     * Set up and run a single simulation, or an ensemble of one simulation
+     * per seed, writing their output files
+     *
+     * @param run run to execute
+     * @throws Exception when the run fails
+     */
+    private void runOne(Run run) throws Exception {
+        SeedAggregator summary = run.summary;
+        SeedAggregator.Trajectory[] trajectories =
+                new SeedAggregator.Trajectory[run.numSeeds];
+        BatchTelemetry.RunProgress[] progress =
+                new BatchTelemetry.RunProgress[run.numSeeds];
+        for (int s = 0; s < run.numSeeds; s++) {
+            trajectories[s] = new SeedAggregator.Trajectory();
+            if (telemetry != null) {
+                progress[s] = telemetry.started(run.getName(run.seed + s));
+            }
+        }
+        try {
+            Properties runOverrides = run.experiment.overrides(overrides);
+            if (ensembleSize > 1 && !runOverrides.containsKey("Engine")) {
+                Properties ensembleOverrides = new Properties();
+                ensembleOverrides.putAll(runOverrides);
+                ensembleOverrides.setProperty("Engine", "array");
+                runOverrides = ensembleOverrides;
+            }
+            List<Simulation> simulations = new ArrayList<>();
+            for (int s = 0; s < run.numSeeds; s++) {
+                Simulation simulation = Simulation.create(
+                        run.experiment.propertiesFile, runOverrides);
+                simulation.setRandomSeed(run.seed + s);
+                simulation.setInheritance(run.inheritance);
+                simulation.setWriteOutput(true);
+                if (summary != null) {
+                    simulation.addSink(trajectories[s]);
+                }
+                if (progress[s] != null) {
+                    simulation.addSink(progress[s]);
+                }
+                simulations.add(simulation);
+            }
+            if (ensembleSize > 1) {
+                Ensemble ensemble = new Ensemble(simulations);
+                ensemble.setup();
+                ensemble.run();
+            } else {
+                simulations.get(0).setup();
+                simulations.get(0).run();
+            }
+        } catch (Exception e) {
+            for (int s = 0; s < run.numSeeds; s++) {
+                if (summary != null) {
+                    summary.skip(run.seed + s);
+                }
+                if (progress[s] != null) {
+                    telemetry.finished(progress[s], false);
+                }
+            }
+            throw e;
+        }
+        for (int s = 0; s < run.numSeeds; s++) {
+            if (summary != null) {
+                summary.add(run.seed + s, trajectories[s].toArray());
+            }
+            if (progress[s] != null) {
+                telemetry.finished(progress[s], true);
+            }
+        }
+    }
+
+    /**
+     * Command line of a batch, shared by BatchRunner and Coordinator:
+     * {first seed} {last seed} {inheritance flags} {properties files...}
+     * [Key=Value...]
+     */
+    public static class Arguments {
+        // first and last seed, inclusive
+        private final int firstSeed;
+        private final int lastSeed;
+        // inheritance settings to run
+        private final List<Boolean> inheritanceFlags = new ArrayList<>();
+        // an experiment for each properties file
+        private final List<Experiment> experiments = new ArrayList<>();
+        // Key=Value pairs following the properties files
+        private final Properties overrides;
+
+        /**
+         * @param args command line
+         */
+        Arguments(String[] args) {
+            firstSeed = Integer.parseInt(args[0]);
+            lastSeed = Integer.parseInt(args[1]);
+            for (String flag : args[2].split(",")) {
+                inheritanceFlags.add(Boolean.parseBoolean(flag));
+            }
+            // properties files are listed until the first Key=Value override
+            int i = 3;
+            while (i < args.length && !args[i].contains("=")) {
+                experiments.add(new Experiment(args[i], null));
+                i++;
+            }
+            overrides = Simulation.parseOverrides(args, i);
+        }
+
+        /**
+         * Read an entrypoint's command line, printing its usage and exiting
+         * when arguments are missing
+         *
+         * @param program name of the entrypoint
+         * @param args    command line
+         * @return arguments read
+         */
+        public static Arguments parse(String program, String[] args) {
+            if (args.length < 4) {
+                System.err.println("Usage: " + program + " {first seed} " +
+                        "{last seed} {inheritance flags} " +
+                        "{properties files...} [Key=Value...]");
+                System.exit(1);
+            }
+            return new Arguments(args);
+        }
+
+        /**
+         * @return first seed, inclusive
+         */
+        int getFirstSeed() {
+            return firstSeed;
+        }
+
+        /**
+         * @return last seed, inclusive
+         */
+        int getLastSeed() {
+            return lastSeed;
+        }
+
+        /**
+         * @return inheritance settings to run
+         */
+        List<Boolean> getInheritanceFlags() {
+            return inheritanceFlags;
+        }
+
+        /**
+         * @return an experiment for each properties file
+         */
+        List<Experiment> getExperiments() {
+            return experiments;
+        }
+
+        /**
+         * @return Key=Value pairs following the properties files
+         */
+        Properties getOverrides() {
+            return overrides;
+        }
+    }
+
+    /**
+     * A properties file to run with every seed and inheritance flag, with
+     * properties of its own overriding it, such as a RunName for its output
+     * files
+     */
+    public static class Experiment {
+        // properties file, or checkpoint, of every run
+        private final String propertiesFile;
+        // properties overriding the properties file, or null
+        private final Properties properties;
+        // name of output files, before the seed
+        private final String name;
+
+        /**
+         * @param propertiesFile properties file, or checkpoint, of every run
+         * @param properties     properties overriding the properties file,
+         *                       or null
+         */
+        public Experiment(String propertiesFile, Properties properties) {
+            this.propertiesFile = propertiesFile;
+            this.properties = properties;
+            if (properties != null && properties.containsKey("RunName")) {
+                name = properties.getProperty("RunName");
+            } else {
+                name = new File(propertiesFile).getName().split("\\.")[0];
+            }
+        }
+
+        /**
+         * @return properties file, or checkpoint, of every run
+         */
+        String getPropertiesFile() {
+            return propertiesFile;
+        }
+
+        /**
+         * @return name of output files, before the seed
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the experiment's properties, overridden by the runner's,
+         * overriding the properties file
+         */
+        Properties overrides(Properties runnerOverrides) {
+            if (properties == null) {
+                return runnerOverrides;
+            }
+            Properties merged = new Properties();
+            merged.putAll(properties);
+            merged.putAll(runnerOverrides);
+            return merged;
+        }
+    }
+
+    /**
+     * One run of an experiment, with a seed, or consecutive seeds run as an
+     * ensemble, and an inheritance flag
+     */
+    private static class Run {
+        // experiment being run
+        private final Experiment experiment;
+        // first random seed, number of seeds and inheritance flag of the run
+        private final int seed;
+        private final int numSeeds;
+        private final boolean inheritance;
+        // summary to fold the run into once finished, or null
+        private final SeedAggregator summary;
+        // estimated work of the run, for ordering runs
+        private final long cost;
+
+        Run(Experiment experiment, int seed, int numSeeds, boolean inheritance,
+            SeedAggregator summary, long cost) {
+            this.experiment = experiment;
+            this.seed = seed;
+            this.numSeeds = numSeeds;
+            this.inheritance = inheritance;
+            this.summary = summary;
+            this.cost = cost;
+        }
+
+        /**
+         * @return name of the run of one seed, as its output files are named
+         */
+        String getName(int seed) {
+            return experiment.name + "-seed-" + seed +
+                    (inheritance ? "-inheritance" : "");
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live progress of a BatchRunner sweep, served as JSON over HTTP on the
+ * loopback interface at /status, using the JDK's built-in HTTP server:
+ * runs queued, active, completed and failed, heap use, and for each worker
+ * and each active run, ticks per second and the latest Gini index.
+ * Runs report each tick through a {@link StatisticsSink}, which only
+ * stores the tick, so serving requests never slows the runs down.
+ */
+public class BatchTelemetry {
+    // path of the status endpoint
+    public static final String PATH = "/status";
+
+    // server answering requests, on a thread of its own
+    private final HttpServer server;
+    // time the sweep started, from System.nanoTime
+    private final long startNanos = System.nanoTime();
+    // number of runs not yet started, running, finished and failed
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    // runs in progress, by name
+    private final Map<String, RunProgress> active = new ConcurrentHashMap<>();
+    // ticks run by each worker thread over the sweep, by thread name
+    private final Map<String, AtomicLong> workerTicks =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Start serving telemetry
+     *
+     * @param port port to listen on, or 0 for any free port
+     * @throws IOException when the port cannot be bound
+     */
+    public BatchTelemetry(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "telemetry");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        System.out.println("Telemetry: http://" +
+                server.getAddress().getHostString() + ":" +
+                server.getAddress().getPort() + PATH);
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Record runs queued to start
+     *
+     * @param runs number of runs queued
+     */
+    public void queued(int runs) {
+        queued.addAndGet(runs);
+    }
+
+    /**
+     * Record that a run has started on the current thread
+     *
+     * @param name name of the run
+     * @return sink to add to the run, recording its progress
+     */
+    public RunProgress started(String name) {
+        queued.decrementAndGet();
+        RunProgress progress = new RunProgress(name, workerTicks
+                .computeIfAbsent(Thread.currentThread().getName(),
+                        k -> new AtomicLong()));
+        active.put(name, progress);
+        return progress;
+    }
+
+    /**
+     * Record that a run has finished
+     *
+     * @param progress progress of the run, as returned by started
+     * @param success  whether the run completed without failing
+     */
+    public void finished(RunProgress progress, boolean success) {
+        active.remove(progress.name);
+        (success ? completed : failed).incrementAndGet();
+    }
+
+    /**
+     * Stop serving telemetry once the sweep is done
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Answer a request with the status of the sweep
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return status of the sweep as a JSON object
+     */
+    String toJson() {
+        long now = System.nanoTime();
+        double uptime = (now - startNanos) / 1e9;
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage();
+        StringBuilder json = new StringBuilder("{");
+        json.append(String.format(Locale.ROOT, "\"uptimeSeconds\":%.3f,",
+                uptime));
+        json.append("\"runsQueued\":").append(queued.get())
+                .append(",\"runsActive\":").append(active.size())
+                .append(",\"runsCompleted\":").append(completed.get())
+                .append(",\"runsFailed\":").append(failed.get())
+                .append(",\"heapUsedBytes\":").append(heap.getUsed())
+                .append(",\"heapMaxBytes\":").append(heap.getMax());
+
+        // workers in name order, by ticks over the whole sweep
+        json.append(",\"workers\":[");
+        String separator = "";
+        for (Map.Entry<String, AtomicLong> worker :
+                new TreeMap<>(workerTicks).entrySet()) {
+            long ticks = worker.getValue().get();
+            json.append(separator).append("{\"worker\":")
+                    .append(quote(worker.getKey()))
+                    .append(",\"ticks\":").append(ticks)
+                    .append(String.format(Locale.ROOT,
+                            ",\"ticksPerSecond\":%.1f}", ticks / uptime));
+            separator = ",";
+        }
+
+        // active runs in name order
+        json.append("],\"runs\":[");
+        separator = "";
+        for (RunProgress run : new TreeMap<>(active).values()) {
+            // read each field once, as the run keeps updating them
+            int tick = run.tick;
+            float gini = run.gini;
+            long ticks = run.ticks;
+            long lastNanos = run.lastNanos;
+            long sampled = System.nanoTime();
+            double elapsed = (sampled - run.startNanos) / 1e9;
+            json.append(separator).append("{\"run\":").append(quote(run.name))
+                    .append(",\"worker\":").append(quote(run.worker))
+                    .append(",\"tick\":").append(tick)
+                    .append(String.format(Locale.ROOT,
+                            ",\"gini\":%s,\"ticksPerSecond\":%.1f," +
+                                    "\"secondsSinceTick\":%.3f}",
+                            Float.isNaN(gini) ? "null" : Float.toString(gini),
+                            ticks / Math.max(elapsed, 1e-9),
+                            (sampled - lastNanos) / 1e9));
+            separator = ",";
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * @return a string as a JSON string literal
+     */
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Progress of one run, updated by the run each tick and read by the
+     * server
+     */
+    public static class RunProgress implements StatisticsSink {
+        // name of the run
+        private final String name;
+        // worker thread running it
+        private final String worker;
+        // ticks run by the worker over the sweep, shared by its runs
+        private final AtomicLong workerTicks;
+        // time the run started, from System.nanoTime
+        private final long startNanos = System.nanoTime();
+        // latest tick and its Gini index, and when it was recorded
+        private volatile int tick = -1;
+        private volatile float gini = Float.NaN;
+        private volatile long lastNanos = startNanos;
+        // ticks recorded by this run
+        private volatile long ticks;
+
+        RunProgress(String name, AtomicLong workerTicks) {
+            this.name = name;
+            this.worker = Thread.currentThread().getName();
+            this.workerTicks = workerTicks;
+        }
+
+        @Override
+        public void record(int tick, float gini) {
+            this.tick = tick;
+            this.gini = gini;
+            this.lastNanos = System.nanoTime();
+            ticks++;
+            workerTicks.incrementAndGet();
+        }
+    }
+}
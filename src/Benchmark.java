@@ -0,0 +1,388 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Microbenchmarks for the hot paths of the simulation, measured the way JMH
+ * measures them: a trial per benchmark and parameter set on a freshly set up
+ * world, warmup iterations to let the JIT compile the code, then timed
+ * measurement iterations, each running the operation repeatedly for a fixed
+ * time.  Reports time per operation, operations per second (ticks per second
+ * for go) and bytes allocated per operation by the benchmark thread.
+ * Phase benchmarks run whole ticks so the world keeps evolving as it would
+ * in a real run, but only time and count allocation in their phase.
+ * Entrypoint for benchmarking.
+ */
+public class Benchmark {
+    // all benchmarks, in the order they are run
+    private static final List<String> BENCHMARKS = Arrays.asList(
+            "go", "turnTowardsGrain", "harvest", "moveEatAgeDie",
+            "growGrain", "updatePerception", "updateGini",
+            "computeLorenzAndGini", "setupPatches", "diffuseGrain",
+            "diffuseSequential", "diffuseSimultaneous");
+
+    // confidence of the interval reported as the error, as JMH reports it
+    private static final double CONFIDENCE = 0.999;
+    // thread bean used to count bytes allocated by the benchmark thread
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+
+    // latest result of a benchmark that returns one, written so that the
+    // JIT cannot remove the code computing it as dead
+    private static volatile float consumed;
+
+    // properties overriding every properties file
+    private final Properties overrides;
+    // number of warmup iterations per trial
+    private final int warmup;
+    // number of measured iterations per trial
+    private final int iterations;
+    // minimum duration of each iteration
+    private final long iterationNanos;
+
+    /**
+     * @param overrides      properties overriding every properties file
+     * @param warmup         number of warmup iterations per trial
+     * @param iterations     number of measured iterations per trial
+     * @param iterationMillis minimum duration of each iteration
+     */
+    public Benchmark(Properties overrides, int warmup, int iterations,
+                     long iterationMillis) {
+        this.overrides = overrides;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    /**
+     * Usage: Benchmark {properties files...} [Key=Value...]
+     * - Benchmarks=go,harvest,... selects benchmarks (default: all)
+     * - Scales=1,4 scales each world: patches in x and y are multiplied by
+     * the scale, and the number of people by its square (default: 1)
+     * - Warmup=n, Iterations=n, IterationMillis=n control measurement
+     * (defaults: 5, 10, 1000)
+     * - any other Key=Value overrides the properties files, e.g.
+     * Engine=array or Threads=4
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> propertiesFiles = new ArrayList<>();
+        int i = 0;
+        while (i < args.length && !args[i].contains("=")) {
+            propertiesFiles.add(args[i]);
+            i++;
+        }
+        if (propertiesFiles.isEmpty()) {
+            propertiesFiles.add(Simulation.DEFAULT_PROPERTIES_FILE);
+        }
+        Properties overrides = Simulation.parseOverrides(args, i);
+        List<String> benchmarks = BENCHMARKS;
+        if (overrides.containsKey("Benchmarks")) {
+            benchmarks = Arrays.asList(
+                    overrides.getProperty("Benchmarks").split(","));
+        }
+        String[] scales = overrides.getProperty("Scales", "1").split(",");
+        Benchmark benchmark = new Benchmark(overrides,
+                Integer.parseInt(overrides.getProperty("Warmup", "5")),
+                Integer.parseInt(overrides.getProperty("Iterations", "10")),
+                Long.parseLong(overrides.getProperty("IterationMillis",
+                        "1000")));
+
+        List<String> results = new ArrayList<>();
+        for (String name : benchmarks) {
+            if (!BENCHMARKS.contains(name)) {
+                throw new IllegalArgumentException("Unknown benchmark: " +
+                        name);
+            }
+            for (String propertiesFile : propertiesFiles) {
+                for (String scale : scales) {
+                    results.add(benchmark.trial(name, propertiesFile,
+                            Integer.parseInt(scale)));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-22s %-32s %5s %14s %12s %14s %12s",
+                "Benchmark", "Properties", "Scale", "ns/op", "error",
+                "ops/s", "B/op"));
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Run one benchmark on a fresh world
+     *
+     * @param name           benchmark to run
+     * @param propertiesFile properties of the world
+     * @param scale          factor to scale the world's size by
+     * @return formatted result row
+     */
+    private String trial(String name, String propertiesFile, int scale)
+            throws Exception {
+        Simulation simulation = createWorld(propertiesFile, scale);
+        Operation operation = operation(name, simulation);
+        Meter meter = new Meter();
+
+        System.out.println("# " + name + " " + propertiesFile + " x" + scale);
+        for (int i = 0; i < warmup; i++) {
+            iteration(operation, meter);
+            System.out.println(String.format("Warmup %d: %.1f ns/op", i + 1,
+                    meter.nanosPerOp()));
+        }
+        double[] nanosPerOp = new double[iterations];
+        double bytesPerOp = 0;
+        for (int i = 0; i < iterations; i++) {
+            iteration(operation, meter);
+            nanosPerOp[i] = meter.nanosPerOp();
+            bytesPerOp += meter.bytesPerOp() / iterations;
+            System.out.println(String.format("Iteration %d: %.1f ns/op",
+                    i + 1, nanosPerOp[i]));
+        }
+        simulation.executor.shutdown();
+
+        double mean = Arrays.stream(nanosPerOp).average().orElse(0);
+        double variance = Arrays.stream(nanosPerOp)
+                .map(n -> (n - mean) * (n - mean))
+                .sum() / Math.max(1, iterations - 1);
+        // error as the half width of a 99.9% confidence interval of the
+        // mean, from Student's t distribution, as JMH reports it
+        double error = studentTQuantile(CONFIDENCE,
+                Math.max(1, iterations - 1)) *
+                Math.sqrt(variance / iterations);
+        return String.format("%-22s %-32s %5d %14.1f %12.1f %14.2f %12.1f",
+                name, new java.io.File(propertiesFile).getName(), scale, mean,
+                error, 1e9 / mean, bytesPerOp);
+    }
+
+    /**
+     * Run an operation until the iteration time has passed
+     */
+    private void iteration(Operation operation, Meter meter)
+            throws Exception {
+        meter.reset();
+        long end = System.nanoTime() + iterationNanos;
+        while (System.nanoTime() < end) {
+            operation.run(meter);
+            meter.ops++;
+        }
+    }
+
+    /**
+     * Create and set up a world, scaled up from its properties file
+     */
+    private Simulation createWorld(String propertiesFile, int scale)
+            throws Exception {
+        Properties base = Simulation.loadProperties(propertiesFile,
+                overrides);
+        Properties scaled = new Properties();
+        scaled.putAll(overrides);
+        scaled.setProperty("XPatches", String.valueOf(scale *
+                Integer.parseInt(base.getProperty("XPatches"))));
+        scaled.setProperty("YPatches", String.valueOf(scale *
+                Integer.parseInt(base.getProperty("YPatches"))));
+        scaled.setProperty("NumPeople", String.valueOf(scale * scale *
+                Integer.parseInt(base.getProperty("NumPeople"))));
+        Simulation simulation = Simulation.create(propertiesFile, scaled);
+        simulation.setup();
+        return simulation;
+    }
+
+    /**
+     * @return operation measuring the named benchmark on a world
+     */
+    private Operation operation(String name, Simulation s) {
+        switch (name) {
+            case "go":
+                return meter -> {
+                    meter.start();
+                    s.go();
+                    meter.stop();
+                };
+            case "computeLorenzAndGini":
+                // the per-tick statistics before WealthHistogram: box, sort
+                // and walk every turtle's wealth
+                return meter -> {
+                    int[] sorted = s.getWealthHistogram().toSortedArray();
+                    List<Integer> wealth = new ArrayList<>(sorted.length);
+                    // shuffle deterministically, as turtles are unsorted
+                    for (int i = 0; i < sorted.length; i++) {
+                        wealth.add(sorted[(int) ((i * 7919L) % sorted.length)]);
+                    }
+                    meter.start();
+                    float gini = s.computeGini(s.computeLorenz(wealth));
+                    meter.stop();
+                    consumed = gini;
+                };
+            case "setupPatches":
+                return meter -> {
+                    meter.start();
+                    s.setupPatches();
+                    meter.stop();
+                };
+            case "diffuseGrain":
+                if (!(s instanceof World)) {
+                    throw new IllegalArgumentException(
+                            "diffuseGrain needs Engine=object");
+                }
+                World world = (World) s;
+                // one diffusion pass over every patch, as in setupPatches
+                return meter -> {
+                    meter.start();
+                    for (int x = 0; x < s.xPatches; x++) {
+                        for (int y = 0; y < s.yPatches; y++) {
+                            world.diffuseGrain(world.getPatch(x, y),
+                                    s.GRAIN_DIFFUSION_PROPORTION);
+                        }
+                    }
+                    meter.stop();
+                };
+            case "diffuseSequential":
+            case "diffuseSimultaneous":
+                // one diffusion pass over every patch with DiffusionKernel,
+                // the simultaneous pass on the run's Threads
+                DiffusionKernel kernel = new DiffusionKernel(s.xPatches,
+                        s.yPatches, s::wrap, s.executor);
+                double[][] grain = {s.setupInitialGrain()};
+                boolean simultaneous = name.equals("diffuseSimultaneous");
+                return meter -> {
+                    meter.start();
+                    if (simultaneous) {
+                        grain[0] = kernel.diffuseSimultaneous(grain[0],
+                                s.GRAIN_DIFFUSION_PROPORTION);
+                    } else {
+                        kernel.diffuseSequential(grain[0],
+                                s.GRAIN_DIFFUSION_PROPORTION);
+                    }
+                    meter.stop();
+                };
+            default:
+                return meter -> tick(s, name, meter);
+        }
+    }
+
+    /**
+     * Run one tick through Simulation.go, measuring only the named phase
+     */
+    private static void tick(Simulation s, String measured, Meter meter) {
+        s.go((phase, simulation) -> {
+            if (phase.getLabel().equals(measured)) {
+                meter.start();
+                phase.run(simulation);
+                meter.stop();
+            } else {
+                phase.run(simulation);
+            }
+        });
+    }
+
+    /**
+     * @return value that a Student's t variable with the given degrees of
+     * freedom lies within plus or minus of with the given probability, as
+     * used for a two-sided confidence interval, found by bisection
+     */
+    static double studentTQuantile(double confidence, int degreesOfFreedom) {
+        double low = 0;
+        double high = 1;
+        while (studentTCentral(high, degreesOfFreedom) < confidence) {
+            low = high;
+            high *= 2;
+        }
+        for (int i = 0; i < 100; i++) {
+            double middle = (low + high) / 2;
+            if (studentTCentral(middle, degreesOfFreedom) < confidence) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * @return probability that a Student's t variable with the given
+     * degrees of freedom lies between -t and t, from the finite series of
+     * Abramowitz and Stegun 26.7.3 and 26.7.4
+     */
+    static double studentTCentral(double t, int degreesOfFreedom) {
+        double theta = Math.atan(t / Math.sqrt(degreesOfFreedom));
+        double sin = Math.sin(theta);
+        double cos = Math.cos(theta);
+        if (degreesOfFreedom % 2 == 0) {
+            // sin(1 + 1/2 cos^2 + 1*3/(2*4) cos^4 + ...)
+            double term = 1;
+            double sum = 1;
+            for (int j = 1; j <= (degreesOfFreedom - 2) / 2; j++) {
+                term *= (2.0 * j - 1) / (2.0 * j) * cos * cos;
+                sum += term;
+            }
+            return sin * sum;
+        }
+        // 2/pi (theta + sin(cos + 2/3 cos^3 + 2*4/(3*5) cos^5 + ...))
+        double sum = 0;
+        if (degreesOfFreedom > 1) {
+            double term = cos;
+            sum = cos;
+            for (int j = 1; j <= (degreesOfFreedom - 3) / 2; j++) {
+                term *= 2.0 * j / (2.0 * j + 1) * cos * cos;
+                sum += term;
+            }
+        }
+        return 2 / Math.PI * (theta + sin * sum);
+    }
+
+    /**
+     * An operation being benchmarked, which starts and stops the meter
+     * around the code it measures
+     */
+    private interface Operation {
+        void run(Meter meter) throws Exception;
+    }
+
+    /**
+     * Accumulates time and allocation of the measured code of an iteration
+     */
+    private static class Meter {
+        // operations run this iteration
+        private long ops;
+        // measured time this iteration
+        private long nanos;
+        // measured allocation this iteration
+        private long bytes;
+        // time and allocation when the meter was started
+        private long startNanos;
+        private long startBytes;
+
+        void reset() {
+            ops = 0;
+            nanos = 0;
+            bytes = 0;
+        }
+
+        void start() {
+            startBytes = THREADS.getCurrentThreadAllocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        void stop() {
+            nanos += System.nanoTime() - startNanos;
+            bytes += THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+        }
+
+        double nanosPerOp() {
+            return (double) nanos / Math.max(1, ops);
+        }
+
+        double bytesPerOp() {
+            return (double) bytes / Math.max(1, ops);
+        }
+    }
+}
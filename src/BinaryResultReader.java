@@ -0,0 +1,155 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Reads a binary results file written by {@link BinarySink}, memory-mapping
+ * it so that loading many runs reads them straight from the page cache.
+ * Files whose run did not finish are read up to the last value written.
+ * Usage as an entrypoint: BinaryResultReader {files...} prints each file
+ * as the csv its run would have written.
+ */
+public class BinaryResultReader {
+    // random seed of the run
+    private final int seed;
+    // whether the run had inheritance
+    private final boolean inheritance;
+    // commit the run was built from
+    private final String commit;
+    // properties of the run
+    private final Properties properties = new Properties();
+    // gini index at each tick
+    private final float[] gini;
+
+    /**
+     * Map and decode a binary results file
+     *
+     * @param file file to read
+     * @throws IOException when the file cannot be read or is not a binary
+     *                     results file
+     */
+    public BinaryResultReader(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        if (buffer.remaining() < Integer.BYTES + Short.BYTES ||
+                buffer.getInt() != BinarySink.MAGIC) {
+            throw new IOException("Not a binary results file: " + file);
+        }
+        short version = buffer.getShort();
+        if (version != BinarySink.VERSION) {
+            throw new IOException("Unsupported version " + version + ": " +
+                    file);
+        }
+        int flags = buffer.get();
+        inheritance = (flags & BinarySink.INHERITANCE) != 0;
+        boolean delta = (flags & BinarySink.DELTA) != 0;
+        seed = buffer.getInt();
+        commit = getString(buffer);
+        properties.load(new StringReader(getString(buffer)));
+        int numTicks = buffer.getInt();
+
+        if (delta) {
+            gini = decodeDelta(buffer, numTicks);
+        } else {
+            if (numTicks == BinarySink.UNKNOWN) {
+                numTicks = buffer.remaining() / Float.BYTES;
+            }
+            gini = new float[numTicks];
+            buffer.asFloatBuffer().get(gini);
+        }
+    }
+
+    /**
+     * Usage: BinaryResultReader {files...}
+     * Prints each file as "tick,gini" csv lines
+     */
+    public static void main(String[] args) throws IOException {
+        for (String file : args) {
+            BinaryResultReader reader = new BinaryResultReader(
+                    Paths.get(file));
+            System.out.println("tick,gini");
+            float[] gini = reader.getGini();
+            for (int tick = 0; tick < gini.length; tick++) {
+                System.out.println(tick + "," + gini[tick]);
+            }
+        }
+    }
+
+    /**
+     * Decode delta encoded values, until numTicks values or, if the run
+     * did not finish, the end of the file
+     */
+    private static float[] decodeDelta(ByteBuffer buffer, int numTicks) {
+        float[] values = new float[numTicks == BinarySink.UNKNOWN ?
+                buffer.remaining() : numTicks];
+        int bits = 0;
+        int n = 0;
+        decode:
+        while (n < values.length) {
+            int zigzag = 0;
+            int b;
+            int shift = 0;
+            do {
+                // a value cut short by the end of the file was not written
+                if (!buffer.hasRemaining()) {
+                    break decode;
+                }
+                b = buffer.get();
+                zigzag |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            bits += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[n++] = Float.intBitsToFloat(bits);
+        }
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string
+     */
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public boolean getInheritance() {
+        return inheritance;
+    }
+
+    public String getCommit() {
+        return commit;
+    }
+
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return gini index at each tick, from tick 0
+     */
+    public float[] getGini() {
+        return gini;
+    }
+}
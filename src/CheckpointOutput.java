@@ -0,0 +1,104 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Destination of the state written to a checkpoint.  A checkpoint is
+ * written twice: first to an output without a buffer, which only counts
+ * the bytes written, so that the file can be memory-mapped at its exact
+ * size, then to the mapped buffer.  Values are big-endian, as read back
+ * from a ByteBuffer.
+ */
+public class CheckpointOutput {
+    // buffer to write to, or null to only count bytes
+    private final ByteBuffer buffer;
+    // number of bytes written
+    private long size;
+
+    /**
+     * @param buffer buffer to write to, or null to only count bytes
+     */
+    public CheckpointOutput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public void putByte(int b) {
+        if (buffer != null) {
+            buffer.put((byte) b);
+        }
+        size += Byte.BYTES;
+    }
+
+    public void putShort(short s) {
+        if (buffer != null) {
+            buffer.putShort(s);
+        }
+        size += Short.BYTES;
+    }
+
+    public void putInt(int i) {
+        if (buffer != null) {
+            buffer.putInt(i);
+        }
+        size += Integer.BYTES;
+    }
+
+    public void putLong(long l) {
+        if (buffer != null) {
+            buffer.putLong(l);
+        }
+        size += Long.BYTES;
+    }
+
+    public void putFloat(float f) {
+        if (buffer != null) {
+            buffer.putFloat(f);
+        }
+        size += Float.BYTES;
+    }
+
+    public void putDouble(double d) {
+        if (buffer != null) {
+            buffer.putDouble(d);
+        }
+        size += Double.BYTES;
+    }
+
+    /**
+     * Write an int length followed by the bytes
+     */
+    public void putBytes(byte[] bytes) {
+        putInt(bytes.length);
+        if (buffer != null) {
+            buffer.put(bytes);
+        }
+        size += bytes.length;
+    }
+
+    /**
+     * Write a string as UTF-8 bytes, read back by getString
+     */
+    public void putString(String s) {
+        putBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a string written by putString
+     */
+    public static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public long size() {
+        return size;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Detects when the Gini index of a run has settled into a stationary band,
+ * so the run can stop early.  Compares the latest window of ticks with the
+ * window before it: the series has converged once their means, and their
+ * standard deviations, each differ by no more than the tolerance times the
+ * earlier window's mean.
+ */
+public class ConvergenceDetector implements StatisticsSink {
+    // number of ticks in each window compared
+    private final int window;
+    // largest difference between windows, relative to the mean
+    private final double tolerance;
+    // gini index of the last two windows of ticks, oldest overwritten first
+    private final float[] recent;
+    // number of ticks recorded
+    private int numRecorded;
+    // tick the series converged at, or -1 if it has not
+    private int convergedTick = -1;
+    // mean, variance, minimum and maximum of the latest window once
+    // converged
+    private double mean;
+    private double variance;
+    private float min;
+    private float max;
+
+    /**
+     * @param window    number of ticks in each window compared
+     * @param tolerance largest difference between windows, relative to the
+     *                  mean
+     */
+    public ConvergenceDetector(int window, double tolerance) {
+        if (window < 2) {
+            throw new IllegalArgumentException(
+                    "ConvergenceWindow must be at least 2: " + window);
+        }
+        this.window = window;
+        this.tolerance = tolerance;
+        recent = new float[2 * window];
+    }
+
+    @Override
+    public void record(int tick, float gini) {
+        recent[numRecorded % recent.length] = gini;
+        numRecorded++;
+        if (convergedTick >= 0 || numRecorded < recent.length) {
+            return;
+        }
+
+        // windows by age, from the oldest tick held
+        int oldest = numRecorded % recent.length;
+        double earlierMean = mean(oldest);
+        double laterMean = mean(oldest + window);
+        double earlierDeviation = Math.sqrt(variance(oldest, earlierMean));
+        double laterVariance = variance(oldest + window, laterMean);
+        double bound = tolerance * Math.abs(earlierMean);
+        if (Math.abs(laterMean - earlierMean) <= bound &&
+                Math.abs(Math.sqrt(laterVariance) - earlierDeviation) <=
+                        bound) {
+            convergedTick = tick;
+            mean = laterMean;
+            variance = laterVariance;
+            min = Float.MAX_VALUE;
+            max = -Float.MAX_VALUE;
+            for (int i = 0; i < window; i++) {
+                float g = recent[(oldest + window + i) % recent.length];
+                min = Math.min(min, g);
+                max = Math.max(max, g);
+            }
+        }
+    }
+
+    /**
+     * @return mean of the window of ticks starting at a position in recent
+     */
+    private double mean(int start) {
+        double sum = 0;
+        for (int i = 0; i < window; i++) {
+            sum += recent[(start + i) % recent.length];
+        }
+        return sum / window;
+    }
+
+    /**
+     * @return sample variance of the window of ticks starting at a position
+     * in recent
+     */
+    private double variance(int start, double windowMean) {
+        double sum = 0;
+        for (int i = 0; i < window; i++) {
+            double d = recent[(start + i) % recent.length] - windowMean;
+            sum += d * d;
+        }
+        return sum / (window - 1);
+    }
+
+    /**
+     * Write "converged-tick,max-ticks,window,mean,variance,min,max" to a csv
+     * file: the tick the series converged at, or -1 if it did not, and the
+     * statistics of the stationary window it converged on
+     *
+     * @param file     csv file to write
+     * @param maxTicks ticks the run would have taken without stopping early
+     * @throws IOException when writing fails
+     */
+    public void writeSummary(Path file, int maxTicks) throws IOException {
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file))) {
+            pw.println("converged-tick,max-ticks,window,mean,variance,min,max");
+            if (isConverged()) {
+                pw.println(convergedTick + "," + maxTicks + "," + window + ","
+                        + mean + "," + variance + "," + min + "," + max);
+            } else {
+                pw.println("-1," + maxTicks + "," + window + ",,,,");
+            }
+        }
+    }
+
+    /**
+     * @return whether the series has converged
+     */
+    public boolean isConverged() {
+        return convergedTick >= 0;
+    }
+
+    /**
+     * @return tick the series converged at, or -1 if it has not
+     */
+    public int getConvergedTick() {
+        return convergedTick;
+    }
+
+    /**
+     * @return mean gini index of the window the series converged on
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return sample variance of the gini index over the window the series
+     * converged on
+     */
+    public double getVariance() {
+        return variance;
+    }
+}
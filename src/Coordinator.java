@@ -0,0 +1,655 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a batch of simulations across worker processes: every combination
+ * of properties file, random seed and inheritance flag, as BatchRunner, but
+ * each run in whichever {@link Worker} process asks for it next, over a
+ * socket on the loopback interface.  The coordinator launches the workers
+ * itself, or waits for workers started by hand with its port.
+ * A worker holds a lease on its run, renewed by heartbeats.  If the worker
+ * crashes, or stops sending heartbeats, its lease expires and the run is
+ * queued again, up to Retries times, and a local worker that crashed is
+ * relaunched while runs remain.  Workers send back the files their run wrote, which are only
+ * moved into the output directory once the run succeeds, so the directory
+ * never holds output from a failed attempt.
+ * Entrypoint for running experiments across processes.
+ */
+public class Coordinator {
+    // messages from workers
+    static final String HELLO = "hello";
+    static final String REQUEST = "request";
+    static final String HEARTBEAT = "heartbeat";
+    static final String FILE = "file";
+    static final String DONE = "done";
+    static final String FAILED = "failed";
+    // messages to workers
+    static final String RUN = "run";
+    static final String FINISHED = "finished";
+
+    // properties given on the command line, applied to every run
+    private final Properties overrides;
+    // directory output files are gathered into
+    private final Path outputDir;
+    // time a worker holds a run for without a heartbeat
+    private final long leaseMillis;
+    // number of times a run is retried once it has failed
+    private final int retries;
+
+    // runs waiting for a worker, longest first
+    private final Deque<Run> pending = new ArrayDeque<>();
+    // runs held by workers, by run id
+    private final Map<Integer, Lease> leases = new HashMap<>();
+    // every run, in the order they were queued
+    private final List<Run> runs = new ArrayList<>();
+    // number of runs neither done nor failed for good
+    private int remaining;
+    // number of leases granted, used to name partial output files
+    private int numLeases;
+    // number of leases granted to each worker, by name
+    private final Map<String, Integer> workerLeases = new HashMap<>();
+    // number of local workers still being relaunched
+    private int numSupervisors;
+    // whether every local worker has been given up, so runs are not retried
+    private boolean abandoned;
+    // accepts connections from workers
+    private ServerSocket server;
+
+    /**
+     * @param overrides   properties overriding every run's properties file
+     * @param outputDir   directory output files are gathered into
+     * @param leaseMillis time a worker holds a run for without a heartbeat
+     * @param retries     number of times a run is retried once it has failed
+     */
+    public Coordinator(Properties overrides, Path outputDir, long leaseMillis,
+                       int retries) {
+        this.overrides = overrides;
+        this.outputDir = outputDir;
+        this.leaseMillis = leaseMillis;
+        this.retries = retries;
+    }
+
+    /**
+     * Usage: Coordinator {first seed} {last seed} {inheritance flags}
+     * {properties files...} [Key=Value...]
+     * - arguments as BatchRunner
+     * - Workers=n: number of local worker processes to launch, defaulting
+     * to the number of cores; 0 to only serve workers started by hand
+     * - Port=p: port to listen on (default 0, any free port)
+     * - OutputDir=dir: directory to gather output into (default results)
+     * - LeaseSeconds=s: time a worker holds a run without a heartbeat before
+     * it is given to another (default 30)
+     * - Retries=n: number of times a failed run is retried (default 2)
+     */
+    public static void main(String[] args) throws IOException {
+        BatchRunner.Arguments arguments =
+                BatchRunner.Arguments.parse("Coordinator", args);
+        Properties overrides = arguments.getOverrides();
+        int workers = Integer.parseInt(overrides.getProperty("Workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Coordinator coordinator = new Coordinator(overrides,
+                Paths.get(overrides.getProperty("OutputDir", "results")),
+                1000L * Integer.parseInt(overrides.getProperty(
+                        "LeaseSeconds", "30")),
+                Integer.parseInt(overrides.getProperty("Retries", "2")));
+        int failures = coordinator.runExperiments(arguments.getExperiments(),
+                arguments.getFirstSeed(), arguments.getLastSeed(),
+                arguments.getInheritanceFlags(), workers,
+                Integer.parseInt(overrides.getProperty("Port", "0")));
+        if (failures > 0) {
+            System.err.println(failures + " runs failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run every combination of experiment, seed and inheritance flag on
+     * worker processes, longest first, as BatchRunner.runExperiments
+     *
+     * @param experiments      experiments to run
+     * @param firstSeed        first random seed, inclusive
+     * @param lastSeed         last random seed, inclusive
+     * @param inheritanceFlags inheritance settings to run
+     * @param workers          number of local worker processes to launch
+     * @param port             port to listen on, or 0 for any free port
+     * @return number of runs that failed
+     * @throws IOException when the port cannot be bound
+     */
+    public int runExperiments(List<BatchRunner.Experiment> experiments,
+                              int firstSeed, int lastSeed,
+                              List<Boolean> inheritanceFlags, int workers,
+                              int port) throws IOException {
+        for (boolean inheritance : inheritanceFlags) {
+            for (BatchRunner.Experiment experiment : experiments) {
+                long cost = BatchRunner.estimateCost(experiment, overrides);
+                for (int seed = firstSeed; seed <= lastSeed; seed++) {
+                    runs.add(new Run(runs.size(), experiment, seed,
+                            inheritance, cost));
+                }
+            }
+        }
+        List<Run> queue = new ArrayList<>(runs);
+        queue.sort(Comparator.comparingLong((Run run) -> run.cost)
+                .reversed());
+        pending.addAll(queue);
+        remaining = runs.size();
+        Files.createDirectories(outputDir);
+
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println("Coordinator: " + runs.size() + " runs on " +
+                server.getInetAddress().getHostAddress() + ":" +
+                server.getLocalPort() + ", output to " + outputDir);
+        Thread acceptor = new Thread(this::accept, "coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ScheduledExecutorService reaper =
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "leases");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        reaper.scheduleAtFixedRate(this::expireLeases, 1, 1,
+                TimeUnit.SECONDS);
+
+        numSupervisors = workers;
+        for (int w = 0; w < workers; w++) {
+            int slot = w;
+            Thread launcher = new Thread(() -> superviseWorker(slot),
+                    "worker-" + w);
+            launcher.setDaemon(true);
+            launcher.start();
+        }
+
+        try {
+            awaitRuns();
+        } finally {
+            reaper.shutdownNow();
+            server.close();
+        }
+        return writeManifest();
+    }
+
+    /**
+     * Wait until every run is done or has failed for good
+     */
+    private synchronized void awaitRuns() {
+        while (remaining > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Launch a local worker process, and relaunch it each time it crashes
+     * while runs remain.  Each run is only retried Retries times, so a run
+     * that crashes its worker cannot be relaunched forever; a worker that
+     * crashes Retries + 1 times in a row without taking a run is given up.
+     *
+     * @param slot number of the worker, naming its log file
+     */
+    private void superviseWorker(int slot) {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                "java").toString();
+        String name = "worker-" + slot;
+        // launches in a row that crashed without taking a run
+        int crashes = 0;
+        try {
+            while (!isFinished() && crashes <= retries) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                        workerClassPath(), "Worker",
+                        server.getInetAddress().getHostAddress(),
+                        String.valueOf(server.getLocalPort()), name);
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(ProcessBuilder.Redirect.appendTo(
+                        outputDir.resolve(name + ".log").toFile()));
+                int leased = getNumLeases(name);
+                Process process = builder.start();
+                int status = process.waitFor();
+                if (status == 0 || isFinished()) {
+                    return;
+                }
+                System.err.println(name + " exited with status " + status);
+                crashes = getNumLeases(name) > leased ? 0 : crashes + 1;
+            }
+            if (crashes > retries) {
+                System.err.println(name + " gave up after " + crashes +
+                        " crashes without taking a run");
+            }
+        } catch (IOException e) {
+            System.err.println(name + " could not start: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopSupervising();
+        }
+    }
+
+    /**
+     * Note that a local worker is no longer being relaunched.  Once none
+     * are, fail the runs still waiting for one, so the batch finishes
+     * rather than waiting on workers that will never come.  Runs leased by
+     * workers started by hand are left to them, but no longer retried.
+     */
+    private synchronized void stopSupervising() {
+        numSupervisors--;
+        if (numSupervisors > 0 || remaining == 0) {
+            return;
+        }
+        abandoned = true;
+        System.err.println("No local workers left, failing " +
+                pending.size() + " pending runs");
+        for (Run run : pending) {
+            run.status = "failed";
+            remaining--;
+        }
+        pending.clear();
+        notifyAll();
+    }
+
+    /**
+     * @return class path of a local worker: this process's, and wherever
+     * Worker was loaded from, in case a launcher such as a test runner
+     * loaded it from elsewhere
+     */
+    private static String workerClassPath() {
+        String classPath = System.getProperty("java.class.path");
+        CodeSource source = Worker.class.getProtectionDomain()
+                .getCodeSource();
+        if (source != null) {
+            try {
+                classPath += File.pathSeparator +
+                        Paths.get(source.getLocation().toURI());
+            } catch (URISyntaxException e) {
+                // not a local path, so on the class path already
+            }
+        }
+        return classPath;
+    }
+
+    /**
+     * @return number of leases granted so far
+     */
+    synchronized int getNumLeases() {
+        return numLeases;
+    }
+
+    /**
+     * @param worker name of a worker
+     * @return number of leases granted to the worker so far
+     */
+    private synchronized int getNumLeases(String worker) {
+        return workerLeases.getOrDefault(worker, 0);
+    }
+
+    /**
+     * @return whether every run is done or has failed for good
+     */
+    private synchronized boolean isFinished() {
+        return remaining == 0;
+    }
+
+    /**
+     * Accept connections from workers, serving each on its own thread
+     */
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> serve(socket),
+                        "coordinator-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // server closed once every run is done
+            }
+        }
+    }
+
+    /**
+     * Serve one worker: hand it runs as it asks for them, renew its lease
+     * on each heartbeat, and gather its output, until every run is done or
+     * it disconnects.  A worker that disconnects holding a lease gives up
+     * its run straight away.
+     */
+    private void serve(Socket socket) {
+        Lease lease = null;
+        String worker = socket.toString();
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                String message = in.readUTF();
+                if (message.equals(HELLO)) {
+                    worker = in.readUTF();
+                } else if (message.equals(REQUEST)) {
+                    lease = take(worker, socket);
+                    if (lease == null) {
+                        out.writeUTF(FINISHED);
+                        out.flush();
+                        return;
+                    }
+                    writeRun(out, lease);
+                } else if (message.equals(HEARTBEAT)) {
+                    renew(lease, in.readInt());
+                } else if (message.equals(FILE)) {
+                    receiveFile(in, lease);
+                } else if (message.equals(DONE)) {
+                    complete(lease, in.readInt());
+                    lease = null;
+                } else if (message.equals(FAILED)) {
+                    int id = in.readInt();
+                    String reason = in.readUTF();
+                    System.err.println(worker + " failed " +
+                            runs.get(id).getName() + ": " + reason);
+                    release(lease, id);
+                    lease = null;
+                } else {
+                    throw new IOException("Unknown message: " + message);
+                }
+            }
+        } catch (EOFException e) {
+            // worker disconnected
+        } catch (IOException e) {
+            System.err.println(worker + ": " + e);
+        } finally {
+            if (lease != null) {
+                release(lease, lease.run.id);
+            }
+        }
+    }
+
+    /**
+     * Describe a run to the worker leasing it: its id, properties file,
+     * name, seed, inheritance flag, properties and lease duration
+     */
+    private void writeRun(DataOutputStream out, Lease lease)
+            throws IOException {
+        Run run = lease.run;
+        Properties properties = run.experiment.overrides(overrides);
+        out.writeUTF(RUN);
+        out.writeInt(run.id);
+        out.writeUTF(run.experiment.getPropertiesFile());
+        out.writeUTF(run.experiment.getName());
+        out.writeInt(run.seed);
+        out.writeBoolean(run.inheritance);
+        out.writeInt(properties.size());
+        for (String key : properties.stringPropertyNames()) {
+            out.writeUTF(key);
+            out.writeUTF(properties.getProperty(key));
+        }
+        out.writeLong(leaseMillis);
+        out.flush();
+    }
+
+    /**
+     * Take the next run for a worker, waiting while every remaining run is
+     * leased in case one is given up
+     *
+     * @return lease on the run, or null once every run is done
+     */
+    private synchronized Lease take(String worker, Socket socket) {
+        while (pending.isEmpty() && remaining > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (remaining == 0) {
+            return null;
+        }
+        Run run = pending.poll();
+        run.attempts++;
+        run.worker = worker;
+        workerLeases.merge(worker, 1, Integer::sum);
+        Lease lease = new Lease(run, socket, numLeases++);
+        lease.expiry = System.currentTimeMillis() + leaseMillis;
+        leases.put(run.id, lease);
+        System.out.println(worker + " started " + run.getName() +
+                (run.attempts > 1 ? " (attempt " + run.attempts + ")" : ""));
+        return lease;
+    }
+
+    /**
+     * Extend a worker's lease on its run
+     */
+    private synchronized void renew(Lease lease, int id) {
+        if (lease != null && leases.get(id) == lease) {
+            lease.expiry = System.currentTimeMillis() + leaseMillis;
+        }
+    }
+
+    /**
+     * Write a file sent by a worker beside the output directory's files,
+     * under a partial name, until its run is done
+     */
+    private void receiveFile(DataInputStream in, Lease lease)
+            throws IOException {
+        String name = in.readUTF();
+        long length = in.readLong();
+        if (lease == null || !name.equals(new File(name).getName())) {
+            throw new IOException("Unexpected file: " + name);
+        }
+        Path partial = outputDir.resolve(".partial-" + lease.number + "-" +
+                name);
+        try (OutputStream file = Files.newOutputStream(partial)) {
+            byte[] buffer = new byte[1 << 16];
+            while (length > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length,
+                        length));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                file.write(buffer, 0, n);
+                length -= n;
+            }
+        }
+        synchronized (this) {
+            lease.files.put(name, partial);
+        }
+    }
+
+    /**
+     * Move a finished run's files into the output directory, unless its
+     * lease has already expired and the run been given to another worker
+     */
+    private synchronized void complete(Lease lease, int id)
+            throws IOException {
+        if (lease == null || leases.get(id) != lease) {
+            discard(lease);
+            return;
+        }
+        for (Map.Entry<String, Path> file : lease.files.entrySet()) {
+            Files.move(file.getValue(), outputDir.resolve(file.getKey()),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        leases.remove(id);
+        lease.run.status = "done";
+        System.out.println(lease.run.worker + " finished " +
+                lease.run.getName());
+        remaining--;
+        notifyAll();
+    }
+
+    /**
+     * Give up a worker's lease on a run, queueing the run again if it has
+     * retries left and local workers are still being relaunched to take it
+     */
+    private synchronized void release(Lease lease, int id) {
+        discard(lease);
+        if (lease == null || leases.get(id) != lease) {
+            return;
+        }
+        leases.remove(id);
+        Run run = lease.run;
+        if (run.attempts <= retries && !abandoned) {
+            // retry before starting shorter runs
+            pending.addFirst(run);
+        } else {
+            run.status = "failed";
+            remaining--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Delete the partial files of a lease
+     */
+    private void discard(Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        for (Path partial : lease.files.values()) {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + partial + ": " + e);
+            }
+        }
+        lease.files.clear();
+    }
+
+    /**
+     * Take back the runs of workers whose leases have expired, closing
+     * their connections so anything further they send is ignored
+     */
+    private synchronized void expireLeases() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : new ArrayList<>(leases.values())) {
+            if (lease.expiry < now) {
+                System.err.println(lease.run.worker + " lease expired on " +
+                        lease.run.getName());
+                release(lease, lease.run.id);
+                try {
+                    lease.socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Write runs.csv to the output directory: the status, attempts and last
+     * worker of every run
+     *
+     * @return number of runs that failed
+     */
+    private int writeManifest() throws IOException {
+        int failures = 0;
+        Path manifest = outputDir.resolve("runs.csv");
+        System.out.println("Output runs: " + manifest);
+        try (PrintWriter pw = new PrintWriter(
+                Files.newBufferedWriter(manifest))) {
+            pw.println("run,status,attempts,worker");
+            for (Run run : runs) {
+                pw.println(run.getName() + "," + run.status + "," +
+                        run.attempts + "," + run.worker);
+                if (!run.status.equals("done")) {
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * One run of an experiment, with a seed and inheritance flag
+     */
+    private static class Run {
+        // position of the run in the order runs were queued
+        private final int id;
+        // experiment being run
+        private final BatchRunner.Experiment experiment;
+        // random seed and inheritance flag of the run
+        private final int seed;
+        private final boolean inheritance;
+        // estimated work of the run, for ordering runs
+        private final long cost;
+        // number of times the run has been leased
+        private int attempts;
+        // worker that last leased the run
+        private String worker = "";
+        // pending, done or failed
+        private String status = "pending";
+
+        Run(int id, BatchRunner.Experiment experiment, int seed,
+            boolean inheritance, long cost) {
+            this.id = id;
+            this.experiment = experiment;
+            this.seed = seed;
+            this.inheritance = inheritance;
+            this.cost = cost;
+        }
+
+        /**
+         * @return name of the run, as its output files are named
+         */
+        String getName() {
+            return experiment.getName() + "-seed-" + seed +
+                    (inheritance ? "-inheritance" : "");
+        }
+    }
+
+    /**
+     * A worker's hold on a run
+     */
+    private static class Lease {
+        // run leased
+        private final Run run;
+        // connection to the worker holding the lease
+        private final Socket socket;
+        // number of the lease, unique across the batch
+        private final int number;
+        // files received so far, by name, and where they were written
+        private final Map<String, Path> files = new HashMap<>();
+        // time the lease expires unless renewed, from currentTimeMillis
+        private long expiry;
+
+        Lease(Run run, Socket socket, int number) {
+            this.run = run;
+            this.socket = socket;
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts archived csv output, e.g. java-data/commit-{hash}, into binary
+ * results files, written next to each csv with the extension .bin.
+ * The seed and inheritance flag are taken from each csv's name, the commit
+ * from a commit-{hash} directory holding it, and the properties from the
+ * matching file in the properties directory, when there is one.
+ * Entrypoint for converting results.
+ */
+public class CsvConverter {
+    // name of an output csv: {properties}-seed-{seed}[-inheritance].csv
+    private static final Pattern CSV_NAME = Pattern.compile(
+            "(.+)-seed-(\\d+)(-inheritance)?\\.csv");
+    // name of a directory of output from one commit
+    private static final Pattern COMMIT_DIRECTORY = Pattern.compile(
+            "commit-(.+)");
+
+    // directory holding the properties files runs were made with
+    private final Path propertiesDirectory;
+    // whether to delta encode values
+    private final boolean delta;
+
+    /**
+     * @param propertiesDirectory directory holding the properties files
+     * @param delta               whether to delta encode values
+     */
+    public CsvConverter(Path propertiesDirectory, boolean delta) {
+        this.propertiesDirectory = propertiesDirectory;
+        this.delta = delta;
+    }
+
+    /**
+     * Usage: CsvConverter {csv files or directories...} [Key=Value...]
+     * - PropertiesDirectory=dir: where to find properties files
+     * (default: props)
+     * - Compression=delta: delta encode values (default: none)
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> csvFiles = new ArrayList<>();
+        int i = 0;
+        while (i < args.length && !args[i].contains("=")) {
+            Path path = Paths.get(args[i]);
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> files =
+                             Files.newDirectoryStream(path, "*.csv")) {
+                    files.forEach(csvFiles::add);
+                }
+            } else {
+                csvFiles.add(path);
+            }
+            i++;
+        }
+        Properties options = Simulation.parseOverrides(args, i);
+        CsvConverter converter = new CsvConverter(
+                Paths.get(options.getProperty("PropertiesDirectory", "props")),
+                options.getProperty("Compression", "none").equals("delta"));
+        for (Path csvFile : csvFiles) {
+            converter.convert(csvFile);
+        }
+        System.out.println("Converted " + csvFiles.size() + " files");
+    }
+
+    /**
+     * Convert one csv to a binary results file alongside it
+     *
+     * @param csvFile csv output of a run
+     * @return binary results file written
+     * @throws IOException when reading or writing fails
+     */
+    public Path convert(Path csvFile) throws IOException {
+        String name = csvFile.getFileName().toString();
+        Matcher matcher = CSV_NAME.matcher(name);
+        if (!matcher.matches()) {
+            throw new IOException("Not an output csv: " + csvFile);
+        }
+        Properties properties = new Properties();
+        Path propertiesFile = propertiesDirectory.resolve(matcher.group(1) +
+                ".properties");
+        if (Files.exists(propertiesFile)) {
+            properties = Simulation.loadProperties(propertiesFile.toString(),
+                    new Properties());
+        }
+        String commit = "";
+        Path directory = csvFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Matcher commitMatcher = COMMIT_DIRECTORY.matcher(
+                    directory.getFileName().toString());
+            if (commitMatcher.matches()) {
+                commit = commitMatcher.group(1);
+            }
+        }
+
+        Path binaryFile = csvFile.resolveSibling(name.substring(0,
+                name.length() - ".csv".length()) + ".bin");
+        try (BufferedReader reader = Files.newBufferedReader(csvFile);
+             BinarySink sink = new BinarySink(binaryFile, properties,
+                     Integer.parseInt(matcher.group(2)),
+                     matcher.group(3) != null, commit, delta,
+                     Integer.MAX_VALUE)) {
+            // skip header
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                sink.record(Integer.parseInt(line.substring(0, comma)),
+                        Float.parseFloat(line.substring(comma + 1)));
+            }
+        }
+        return binaryFile;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes "tick,gini" for each tick to a csv file as the run goes, in the
+ * same format as printing each line with String.format("%s,%s", ...).
+ * Lines are encoded into a fixed size buffer and written to the file every
+ * flush interval ticks, or sooner if the buffer fills, so memory use does
+ * not grow with the length of the run and a failed run keeps the lines
+ * written before it failed.
+ */
+public class CsvSink implements StatisticsSink {
+    // size of the buffer lines are encoded into
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // end of each line, as written by PrintWriter.println
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    // file being written
+    private final FileChannel channel;
+    // encoded lines not yet written to the file
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // number of ticks between writes to the file
+    private final int flushInterval;
+    // line being encoded, reused for every line
+    private final StringBuilder line = new StringBuilder();
+    // number of ticks recorded since the last write to the file
+    private int unflushed;
+
+    /**
+     * Create or truncate a csv file and write its header
+     *
+     * @param file          csv file to write
+     * @param flushInterval number of ticks between writes to the file
+     * @throws IOException when opening the file fails
+     */
+    public CsvSink(Path file, int flushInterval) throws IOException {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException(
+                    "FlushInterval must be at least 1: " + flushInterval);
+        }
+        this.flushInterval = flushInterval;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        line.append("tick,gini").append(LINE_SEPARATOR);
+        encode();
+    }
+
+    @Override
+    public void record(int tick, float gini) throws IOException {
+        line.append(tick).append(',').append(gini).append(LINE_SEPARATOR);
+        encode();
+        if (++unflushed >= flushInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * Write any lines still buffered, then close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Copy the line into the buffer as ASCII, writing the buffer to the
+     * file first if the line does not fit
+     */
+    private void encode() throws IOException {
+        if (buffer.remaining() < line.length()) {
+            flush();
+        }
+        for (int i = 0; i < line.length(); i++) {
+            buffer.put((byte) line.charAt(i));
+        }
+        line.setLength(0);
+    }
+
+    /**
+     * Write the buffered lines to the file
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        unflushed = 0;
+    }
+}
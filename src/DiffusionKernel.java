@@ -0,0 +1,178 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Diffuses grain between patches held in a flat array indexed by
+ * x * yPatches + y, each patch sharing a proportion of its grain equally
+ * among its 8 neighbours on the torus.  Neighbouring columns and rows are
+ * looked up in tables built once, so no patch wraps its neighbours'
+ * coordinates.
+ * Two ways to diffuse a whole world:
+ * - sequential: patch by patch in place, each patch sharing the grain it
+ * holds once the patches before it have shared theirs, exactly as
+ * World.diffuseGrain does patch by patch.  Each patch depends on the one
+ * before, so this runs on one thread.
+ * - simultaneous: every patch shares the grain it held before the pass, as
+ * NetLogo's diffuse does, into a second buffer.  Columns are independent,
+ * so they run in parallel on the executor, and the result is the same for
+ * any number of threads.
+ */
+public class DiffusionKernel {
+    // number of patches in x and y direction
+    private final int xPatches;
+    private final int yPatches;
+    // index of the first patch of the columns left of, at and right of each
+    // column, indexed by x * 3 + dx + 1
+    private final int[] columns;
+    // rows below, at and above each row, indexed by y * 3 + dy + 1
+    private final int[] rows;
+    // runs the columns of a simultaneous pass
+    private final TickExecutor executor;
+    // grain each patch shares with each neighbour, for a simultaneous pass
+    private double[] share;
+    // buffer a simultaneous pass writes into, swapped with its input
+    private double[] next;
+
+    /**
+     * @param xPatches number of patches in x direction
+     * @param yPatches number of patches in y direction
+     * @param wrap     wraps a coordinate between 0 and a bound - 1, as
+     *                 Simulation.wrap
+     * @param executor runs the columns of a simultaneous pass
+     */
+    public DiffusionKernel(int xPatches, int yPatches, IntBinaryOperator wrap,
+                           TickExecutor executor) {
+        this.xPatches = xPatches;
+        this.yPatches = yPatches;
+        this.executor = executor;
+        columns = new int[xPatches * 3];
+        for (int x = 0; x < xPatches; x++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                columns[x * 3 + dx + 1] =
+                        wrap.applyAsInt(x + dx, xPatches) * yPatches;
+            }
+        }
+        rows = new int[yPatches * 3];
+        for (int y = 0; y < yPatches; y++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                rows[y * 3 + dy + 1] = wrap.applyAsInt(y + dy, yPatches);
+            }
+        }
+    }
+
+    /**
+     * Diffuse grain from one patch, in place
+     *
+     * @param grainHere  grain on each patch, indexed by x * yPatches + y
+     * @param centre     index of patch to diffuse grain from
+     * @param proportion of grain to diffuse
+     */
+    public void diffuseFrom(double[] grainHere, int centre, float proportion) {
+        int x = centre / yPatches;
+        diffuseFrom(grainHere, x, centre - x * yPatches, proportion);
+    }
+
+    /**
+     * Diffuse grain from every patch in turn, in place, column by column
+     *
+     * @param grainHere  grain on each patch, indexed by x * yPatches + y
+     * @param proportion of grain to diffuse
+     */
+    public void diffuseSequential(double[] grainHere, float proportion) {
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                diffuseFrom(grainHere, x, y, proportion);
+            }
+        }
+    }
+
+    /**
+     * Diffuse grain from every patch at once, in parallel
+     *
+     * @param grainHere  grain on each patch, indexed by x * yPatches + y
+     * @param proportion of grain to diffuse
+     * @return grain on each patch after diffusing, in a buffer the next
+     * simultaneous pass reuses; grainHere becomes this kernel's spare buffer
+     */
+    public double[] diffuseSimultaneous(double[] grainHere, float proportion) {
+        if (next == null || next.length != grainHere.length) {
+            share = new double[grainHere.length];
+            next = new double[grainHere.length];
+        }
+        double[] in = grainHere;
+        double[] out = next;
+        executor.forEach(xPatches, x -> {
+            int base = x * yPatches;
+            for (int y = 0; y < yPatches; y++) {
+                share[base + y] = in[base + y] * proportion / 8.0f;
+            }
+        });
+        executor.forEach(xPatches, x -> diffuseColumn(in, out, x));
+        next = in;
+        return out;
+    }
+
+    /**
+     * Diffuse grain from one patch, in place, in the same order and with the
+     * same arithmetic as World.diffuseGrain
+     */
+    private void diffuseFrom(double[] grainHere, int x, int y,
+                             float proportion) {
+        int centre = x * yPatches + y;
+        double grainToShare = grainHere[centre] * proportion;
+        double grainPerNeighbour = grainToShare / 8.0f;
+        grainHere[centre] += -8 * grainPerNeighbour;
+        for (int dx = 0; dx < 3; dx++) {
+            int column = columns[x * 3 + dx];
+            for (int dy = 0; dy < 3; dy++) {
+                if (!(dx == 1 && dy == 1)) {
+                    grainHere[column + rows[y * 3 + dy]] += grainPerNeighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gather the grain shared into each patch of a column.  Rows away from
+     * the edges have their neighbours beside them in the arrays, so their
+     * loop needs no tables and the JIT can vectorise it.
+     */
+    private void diffuseColumn(double[] in, double[] out, int x) {
+        int left = columns[x * 3];
+        int centre = columns[x * 3 + 1];
+        int right = columns[x * 3 + 2];
+        gather(in, out, x, 0);
+        for (int y = 1; y < yPatches - 1; y++) {
+            out[centre + y] = in[centre + y] - 8 * share[centre + y] +
+                    share[left + y - 1] + share[left + y] +
+                    share[left + y + 1] + share[centre + y - 1] +
+                    share[centre + y + 1] + share[right + y - 1] +
+                    share[right + y] + share[right + y + 1];
+        }
+        if (yPatches > 1) {
+            gather(in, out, x, yPatches - 1);
+        }
+    }
+
+    /**
+     * Gather the grain shared into one patch, with its neighbours' rows
+     * wrapped, adding them in the same order as diffuseColumn
+     */
+    private void gather(double[] in, double[] out, int x, int y) {
+        int centre = columns[x * 3 + 1] + y;
+        double grain = in[centre] - 8 * share[centre];
+        for (int dx = 0; dx < 3; dx++) {
+            int column = columns[x * 3 + dx];
+            for (int dy = 0; dy < 3; dy++) {
+                if (!(dx == 1 && dy == 1)) {
+                    grain += share[column + rows[y * 3 + dy]];
+                }
+            }
+        }
+        out[centre] = grain;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Records the shape of the wealth distribution every interval ticks: the
+ * Lorenz curve sampled at a fixed number of evenly spaced shares of the
+ * turtles, and the number of turtles in each of a fixed set of wealth bins,
+ * spaced evenly in log2 of wealth, so each snapshot takes the same space
+ * however many turtles there are.  Both are computed in one pass over the
+ * counts of a {@link WealthHistogram}.
+ * Written as csv files {basename}-lorenz.csv, "tick,{share...}", and
+ * {basename}-histogram.csv, "tick,{lowest wealth of bin...}", or as a binary
+ * file {basename}-snapshots.bin.  All values in the binary file are
+ * big-endian: MAGIC (int), VERSION (short), number of Lorenz points (int),
+ * number of bins (int), the lowest wealth of each bin (int each), then per
+ * snapshot the tick (int), Lorenz points (float32 each) and bin counts (int
+ * each).
+ */
+public class DistributionSnapshots implements Closeable {
+    // identifies a snapshots file: "WDSN"
+    public static final int MAGIC = 0x5744534e;
+    // version of the format
+    public static final short VERSION = 1;
+    // doublings of wealth covered by the bins: every non-negative int
+    private static final int DOUBLINGS = 31;
+
+    // number of ticks between snapshots
+    private final int interval;
+    // Lorenz curve of the latest snapshot
+    private final float[] lorenz;
+    // lowest wealth of each bin
+    private final int[] binLower;
+    // number of turtles in each bin in the latest snapshot
+    private final int[] bins;
+    // csv files being written, or null
+    private BufferedWriter lorenzCsv;
+    private BufferedWriter histogramCsv;
+    // binary file being written, or null
+    private DataOutputStream binary;
+
+    /**
+     * @param interval        number of ticks between snapshots
+     * @param lorenzPoints    number of points of the Lorenz curve
+     * @param binsPerDoubling number of bins each doubling of wealth is split
+     *                        into
+     */
+    public DistributionSnapshots(int interval, int lorenzPoints,
+                                 int binsPerDoubling) {
+        if (interval < 1 || lorenzPoints < 1 || binsPerDoubling < 1) {
+            throw new IllegalArgumentException("SnapshotInterval, " +
+                    "LorenzPoints and HistogramBinsPerDoubling must be at " +
+                    "least 1");
+        }
+        this.interval = interval;
+        lorenz = new float[lorenzPoints];
+        binLower = binLowerBounds(binsPerDoubling);
+        bins = new int[binLower.length];
+    }
+
+    /**
+     * Usage: DistributionSnapshots {snapshots file}
+     * Converts a binary snapshots file to the two csv files written in its
+     * place with Output=csv, beside it
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: DistributionSnapshots " +
+                    "{snapshots file}");
+            System.exit(1);
+        }
+        String basename = args[0].replaceFirst("-snapshots\\.bin$", "");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(Paths.get(args[0]))))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a snapshots file: " + args[0]);
+            }
+            float[] lorenz = new float[in.readInt()];
+            int[] binLower = new int[in.readInt()];
+            for (int b = 0; b < binLower.length; b++) {
+                binLower[b] = in.readInt();
+            }
+            int[] bins = new int[binLower.length];
+            try (BufferedWriter lorenzCsv = openLorenzCsv(basename,
+                    lorenz.length);
+                 BufferedWriter histogramCsv = openHistogramCsv(basename,
+                         binLower)) {
+                while (true) {
+                    int tick;
+                    try {
+                        tick = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    for (int p = 0; p < lorenz.length; p++) {
+                        lorenz[p] = in.readFloat();
+                    }
+                    for (int b = 0; b < bins.length; b++) {
+                        bins[b] = in.readInt();
+                    }
+                    writeCsvRows(lorenzCsv, histogramCsv, tick, lorenz,
+                            bins);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return lowest wealth of each bin: 0 alone, then each doubling of
+     * wealth from 1 split into binsPerDoubling bins at evenly spaced powers
+     * of two, rounded up to whole wealth.  Bins too narrow to hold a whole
+     * wealth value are left out.
+     */
+    static int[] binLowerBounds(int binsPerDoubling) {
+        int[] lower = new int[2 + DOUBLINGS * binsPerDoubling];
+        int numBins = 1;
+        for (int b = 0; b < DOUBLINGS * binsPerDoubling; b++) {
+            int bound = (int) Math.min(Integer.MAX_VALUE, Math.ceil(
+                    Math.pow(2, (double) b / binsPerDoubling)));
+            if (bound > lower[numBins - 1]) {
+                lower[numBins++] = bound;
+            }
+        }
+        return Arrays.copyOf(lower, numBins);
+    }
+
+    /**
+     * Write snapshots to {basename}-lorenz.csv and {basename}-histogram.csv
+     *
+     * @param basename name of output files without their suffix
+     * @throws IOException when opening the files fails
+     */
+    public void openCsv(String basename) throws IOException {
+        lorenzCsv = openLorenzCsv(basename, lorenz.length);
+        histogramCsv = openHistogramCsv(basename, binLower);
+    }
+
+    /**
+     * Write snapshots to {basename}-snapshots.bin
+     *
+     * @param basename name of output files without their suffix
+     * @throws IOException when opening the file fails
+     */
+    public void openBinary(String basename) throws IOException {
+        String file = basename + "-snapshots.bin";
+        System.out.println("Output snapshots: " + file);
+        binary = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(file))));
+        binary.writeInt(MAGIC);
+        binary.writeShort(VERSION);
+        binary.writeInt(lorenz.length);
+        binary.writeInt(binLower.length);
+        for (int lower : binLower) {
+            binary.writeInt(lower);
+        }
+    }
+
+    /**
+     * Record a snapshot of the turtles' wealth, if the tick is a multiple
+     * of the interval
+     *
+     * @param tick   tick the wealth is at the end of
+     * @param wealth histogram of the current wealth of each turtle
+     * @throws IOException when writing fails
+     */
+    public void record(int tick, WealthHistogram wealth) throws IOException {
+        if (tick % interval != 0) {
+            return;
+        }
+        wealth.computeDistribution(lorenz, binLower, bins);
+        if (lorenzCsv != null) {
+            writeCsvRows(lorenzCsv, histogramCsv, tick, lorenz, bins);
+        }
+        if (binary != null) {
+            binary.writeInt(tick);
+            for (float point : lorenz) {
+                binary.writeFloat(point);
+            }
+            for (int count : bins) {
+                binary.writeInt(count);
+            }
+        }
+    }
+
+    /**
+     * Finish writing any files once the run has ended, or failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (binary != null) {
+                binary.close();
+            }
+        } finally {
+            if (lorenzCsv != null) {
+                try {
+                    lorenzCsv.close();
+                } finally {
+                    histogramCsv.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return latest sampled Lorenz curve
+     */
+    public float[] getLorenz() {
+        return lorenz;
+    }
+
+    /**
+     * @return number of turtles in each bin in the latest snapshot
+     */
+    public int[] getBins() {
+        return bins;
+    }
+
+    /**
+     * Create a Lorenz curve csv, with a column per share of the turtles
+     */
+    private static BufferedWriter openLorenzCsv(String basename, int points)
+            throws IOException {
+        String file = basename + "-lorenz.csv";
+        System.out.println("Output lorenz: " + file);
+        BufferedWriter csv = Files.newBufferedWriter(Paths.get(file));
+        StringBuilder header = new StringBuilder("tick");
+        for (int p = 0; p < points; p++) {
+            header.append(',').append((float) (p + 1) / points);
+        }
+        csv.write(header.toString());
+        csv.newLine();
+        return csv;
+    }
+
+    /**
+     * Create a histogram csv, with a column per bin, named by its lowest
+     * wealth
+     */
+    private static BufferedWriter openHistogramCsv(String basename,
+                                                   int[] binLower)
+            throws IOException {
+        String file = basename + "-histogram.csv";
+        System.out.println("Output histogram: " + file);
+        BufferedWriter csv = Files.newBufferedWriter(Paths.get(file));
+        StringBuilder header = new StringBuilder("tick");
+        for (int lower : binLower) {
+            header.append(',').append(lower);
+        }
+        csv.write(header.toString());
+        csv.newLine();
+        return csv;
+    }
+
+    /**
+     * Write a snapshot as a row of each csv
+     */
+    private static void writeCsvRows(BufferedWriter lorenzCsv,
+                                     BufferedWriter histogramCsv, int tick,
+                                     float[] lorenz, int[] bins)
+            throws IOException {
+        StringBuilder row = new StringBuilder().append(tick);
+        for (float point : lorenz) {
+            row.append(',').append(point);
+        }
+        lorenzCsv.write(row.toString());
+        lorenzCsv.newLine();
+        row.setLength(0);
+        row.append(tick);
+        for (int count : bins) {
+            row.append(',').append(count);
+        }
+        histogramCsv.write(row.toString());
+        histogramCsv.newLine();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs several replicates of the same world, differing only in their seed
+ * or inheritance flag, in lockstep: every replicate runs each phase of a
+ * tick before any replicate runs the next phase, under one loop.
+ * The grain and maximum grain of every replicate's patches are held side
+ * by side in two shared arrays, so grain grows on every patch of every
+ * replicate in a single loop without branches, which the JIT compiler
+ * vectorises.  Each replicate keeps its own turtles, random number
+ * generators, statistics and output files, and produces the same output as
+ * running it on its own with Engine=array.
+ * Replicates stop independently, on reaching MaxTicks or converging.
+ */
+public class Ensemble {
+    // worlds run together
+    private final List<ArrayWorld> replicates = new ArrayList<>();
+    // grain on each patch of every replicate, replicate r's patch p at
+    // index r * numPatches + p
+    private double[] grainHere;
+    // maximum grain each patch can hold, indexed likewise
+    private double[] maxGrainHere;
+    // number of patches in each replicate
+    private int numPatches;
+
+    /**
+     * @param simulations replicates to run together, each created with
+     *                    Engine=array and not yet set up
+     */
+    public Ensemble(List<Simulation> simulations) {
+        if (simulations.isEmpty()) {
+            throw new IllegalArgumentException("An ensemble needs at least " +
+                    "one replicate");
+        }
+        for (Simulation simulation : simulations) {
+            if (!(simulation instanceof ArrayWorld)) {
+                throw new IllegalArgumentException("An ensemble needs " +
+                        "Engine=array, not " +
+                        simulation.getClass().getSimpleName());
+            }
+            if (simulation.isProfiling()) {
+                throw new IllegalArgumentException("Profile cannot be used " +
+                        "in an ensemble");
+            }
+            replicates.add((ArrayWorld) simulation);
+        }
+    }
+
+    /**
+     * Set up every replicate, holding their patches in the shared arrays
+     *
+     * @throws Exception when setting up a replicate fails
+     */
+    public void setup() throws Exception {
+        for (int r = 0; r < replicates.size(); r++) {
+            replicates.get(r).joinEnsemble(this, r);
+            replicates.get(r).setup();
+        }
+        ArrayWorld first = replicates.get(0);
+        for (ArrayWorld replicate : replicates) {
+            if (replicate.tick != first.tick ||
+                    replicate.numGrainGrown != first.numGrainGrown ||
+                    replicate.grainGrowthInterval !=
+                            first.grainGrowthInterval) {
+                throw new IllegalArgumentException("Replicates of an " +
+                        "ensemble must start at the same tick and grow " +
+                        "grain alike");
+            }
+        }
+    }
+
+    /**
+     * Place a replicate's patches in the shared arrays, allocating them for
+     * every replicate on the first call
+     *
+     * @param replicate index of the replicate
+     * @param grain     grain on each of its patches
+     * @param maxGrain  maximum grain each of its patches can hold
+     * @return index of the replicate's first patch in the shared arrays
+     */
+    int attach(int replicate, double[] grain, double[] maxGrain) {
+        if (grainHere == null) {
+            numPatches = grain.length;
+            grainHere = new double[replicates.size() * numPatches];
+            maxGrainHere = new double[replicates.size() * numPatches];
+        } else if (grain.length != numPatches) {
+            throw new IllegalArgumentException("Replicates of an ensemble " +
+                    "must have the same number of patches");
+        }
+        int base = replicate * numPatches;
+        System.arraycopy(grain, 0, grainHere, base, numPatches);
+        System.arraycopy(maxGrain, 0, maxGrainHere, base, numPatches);
+        return base;
+    }
+
+    /**
+     * @return grain on each patch of every replicate
+     */
+    double[] getGrainHere() {
+        return grainHere;
+    }
+
+    /**
+     * @return maximum grain each patch of every replicate can hold
+     */
+    double[] getMaxGrainHere() {
+        return maxGrainHere;
+    }
+
+    /**
+     * Run every replicate until each has reached MaxTicks or converged,
+     * then close their output
+     *
+     * @throws Exception when a replicate fails, failing every replicate
+     */
+    public void run() throws Exception {
+        List<ArrayWorld> running = new ArrayList<>(replicates);
+        try {
+            while (true) {
+                for (Iterator<ArrayWorld> it = running.iterator();
+                     it.hasNext(); ) {
+                    ArrayWorld replicate = it.next();
+                    if (!replicate.isRunning()) {
+                        replicate.finish();
+                        it.remove();
+                    }
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                go(running);
+            }
+        } finally {
+            closeOutput();
+        }
+    }
+
+    /**
+     * Run one step of every running replicate, each phase of
+     * Simulation.Phase for every replicate before the next phase
+     *
+     * @param running replicates still running, all at the same tick
+     * @throws IOException when writing a checkpoint fails
+     */
+    private void go(List<ArrayWorld> running) throws IOException {
+        for (ArrayWorld replicate : running) {
+            replicate.tick++;
+        }
+        ArrayWorld first = running.get(0);
+        for (Simulation.Phase phase : Simulation.Phase.ALL) {
+            if (!phase.isDue(first)) {
+                continue;
+            }
+            if (phase == Simulation.Phase.GROW_GRAIN) {
+                growGrain(first.numGrainGrown);
+            } else {
+                for (ArrayWorld replicate : running) {
+                    phase.run(replicate);
+                }
+            }
+        }
+        for (ArrayWorld replicate : running) {
+            replicate.checkpointIfDue();
+        }
+    }
+
+    /**
+     * Grow grain on every patch of every replicate.  Grain never exceeds
+     * the maximum, so taking the minimum alone gives the same result as
+     * ArrayWorld.growGrain, which also skips full patches.  Replicates that
+     * have stopped grow too, which they never read again.
+     *
+     * @param numGrainGrown grain grown on each patch
+     */
+    private void growGrain(int numGrainGrown) {
+        for (int p = 0; p < grainHere.length; p++) {
+            grainHere[p] = Math.min(grainHere[p] + numGrainGrown,
+                    maxGrainHere[p]);
+        }
+    }
+
+    /**
+     * Close every replicate's output, even if closing another fails
+     *
+     * @throws IOException when closing any replicate's output fails
+     */
+    private void closeOutput() throws IOException {
+        IOException failure = null;
+        for (ArrayWorld replicate : replicates) {
+            try {
+                replicate.closeOutput();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
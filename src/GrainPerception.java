@@ -0,0 +1,156 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+/**
+ * Answers how much grain a turtle can see in a given heading in constant
+ * time.  Once per tick, prefix sums of the whole grain on each patch are
+ * computed along every column (north/south) and every row (east/west).
+ * Each prefix sum runs twice around the torus, so that any wrapped run of
+ * patches ahead of a turtle is the difference of two entries.
+ * Matches summing World.getHeadingPatches while vision is smaller than the
+ * world is wide/high less one, beyond which World.wrap no longer wraps
+ * correctly.
+ */
+public class GrainPerception {
+    // number of patches in x direction
+    private final int xPatches;
+    // number of patches in y direction
+    private final int yPatches;
+    // whole grain on each patch, indexed by x * yPatches + y
+    private final int[] grain;
+    // for each x, prefix sums of grain along y, twice around the torus:
+    // northSouth[x * (2 * yPatches + 1) + k] = sum of grain(x, j % yPatches)
+    // for j < k
+    private final int[] northSouth;
+    // for each y, prefix sums of grain along x, twice around the torus
+    private final int[] eastWest;
+
+    /**
+     * @param xPatches number of patches in x direction
+     * @param yPatches number of patches in y direction
+     */
+    public GrainPerception(int xPatches, int yPatches) {
+        this.xPatches = xPatches;
+        this.yPatches = yPatches;
+        grain = new int[xPatches * yPatches];
+        northSouth = new int[xPatches * (2 * yPatches + 1)];
+        eastWest = new int[yPatches * (2 * xPatches + 1)];
+    }
+
+    /**
+     * Recompute the prefix sums from the grain on each patch
+     *
+     * @param patches  patches of the world
+     * @param executor runs each column and row in parallel
+     */
+    public void update(Patch[][] patches, TickExecutor executor) {
+        executor.forEach(xPatches, x -> {
+            for (int y = 0; y < yPatches; y++) {
+                grain[x * yPatches + y] = (int) patches[x][y].getGrainHere();
+            }
+        });
+        computePrefixSums(executor);
+    }
+
+    /**
+     * Recompute the prefix sums from the grain on each patch
+     *
+     * @param grainHere grain on each patch, indexed by x * yPatches + y
+     * @param executor  runs each column and row in parallel
+     */
+    public void update(double[] grainHere, TickExecutor executor) {
+        update(grainHere, 0, executor);
+    }
+
+    /**
+     * Recompute the prefix sums from the grain on each patch, held in a
+     * larger array shared with other worlds
+     *
+     * @param grainHere grain on each patch, indexed by
+     *                  offset + x * yPatches + y
+     * @param offset    index of the first patch in grainHere
+     * @param executor  runs each column and row in parallel
+     */
+    public void update(double[] grainHere, int offset, TickExecutor executor) {
+        executor.forEach(xPatches, x -> {
+            for (int p = x * yPatches; p < (x + 1) * yPatches; p++) {
+                grain[p] = (int) grainHere[offset + p];
+            }
+        });
+        computePrefixSums(executor);
+    }
+
+    /**
+     * Compute prefix sums along every column and row from grain
+     */
+    private void computePrefixSums(TickExecutor executor) {
+        int columnLength = 2 * yPatches + 1;
+        executor.forEach(xPatches, x -> {
+            int base = x * columnLength;
+            northSouth[base] = 0;
+            for (int k = 0; k < 2 * yPatches; k++) {
+                northSouth[base + k + 1] = northSouth[base + k] +
+                        grain[x * yPatches + k % yPatches];
+            }
+        });
+        int rowLength = 2 * xPatches + 1;
+        executor.forEach(yPatches, y -> {
+            int base = y * rowLength;
+            eastWest[base] = 0;
+            for (int k = 0; k < 2 * xPatches; k++) {
+                eastWest[base + k + 1] = eastWest[base + k] +
+                        grain[(k % xPatches) * yPatches + y];
+            }
+        });
+    }
+
+    /**
+     * Total whole grain on the distance patches ahead of (x,y) in a heading,
+     * not including patch (x,y) itself
+     *
+     * @param x        x coordinate of the turtle
+     * @param y        y coordinate of the turtle
+     * @param heading  direction to look
+     * @param distance number of patches to look ahead
+     * @return total whole grain on the patches ahead
+     */
+    public int grainAhead(int x, int y, Heading heading, int distance) {
+        switch (heading) {
+            case NORTH:
+                return sumAlong(northSouth, x * (2 * yPatches + 1), yPatches,
+                        y + 1, distance);
+            case SOUTH:
+                return sumAlong(northSouth, x * (2 * yPatches + 1), yPatches,
+                        y - distance, distance);
+            case EAST:
+                return sumAlong(eastWest, y * (2 * xPatches + 1), xPatches,
+                        x + 1, distance);
+            default:
+                return sumAlong(eastWest, y * (2 * xPatches + 1), xPatches,
+                        x - distance, distance);
+        }
+    }
+
+    /**
+     * Sum a wrapped run of patches from one column or row of prefix sums
+     *
+     * @param prefix prefix sums
+     * @param base   index of the column/row's first prefix sum
+     * @param bound  length of the column/row
+     * @param start  first coordinate of the run, which may be off the world
+     * @param length number of patches in the run
+     * @return total grain in the run
+     */
+    private int sumAlong(int[] prefix, int base, int bound, int start,
+                         int length) {
+        int from = Math.floorMod(start, bound);
+        // whole laps around the torus, for vision beyond the world size
+        int laps = length / bound;
+        int rest = length % bound;
+        return laps * prefix[base + bound] +
+                prefix[base + from + rest] - prefix[base + from];
+    }
+
+}
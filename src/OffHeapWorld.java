@@ -0,0 +1,590 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Off-heap engine for the wealth distribution simulation.
+ * Runs the same model as {@link ArrayWorld}, producing the same output, but
+ * keeps the state of patches and turtles, which turtles are on each patch,
+ * and the prefix sums turtles look for grain with, outside the Java heap:
+ * in direct memory, or in a file memory-mapped with StorageFile.  A world
+ * can then be larger than the heap, and the garbage collector never copies
+ * or scans it.
+ * Patches and turtles are fixed size records, indexed as in ArrayWorld:
+ * patches by x * yPatches + y, and turtles by id.  Each patch record heads
+ * an intrusive list of the turtles on it, as PatchOccupancy.  With split
+ * random streams, each turtle's record holds the position of its stream.
+ * Each region is a ByteBuffer, so holds at most 2 GiB.
+ */
+public class OffHeapWorld extends Simulation {
+    // change in x/y coordinates for one step in each heading, indexed by
+    // Heading.ordinal(): NORTH, EAST, SOUTH, WEST
+    private static final int[] HEADING_DX = {0, 1, 0, -1};
+    private static final int[] HEADING_DY = {1, 0, -1, 0};
+    // headings in the order turtles consider them
+    private static final Heading[] HEADINGS = Heading.values();
+    // marks the end of a patch's list of turtles
+    private static final int NONE = -1;
+
+    // layout of a patch record: grain, maximum grain, first turtle on the
+    // patch and number of turtles on it
+    private static final int PATCH_BYTES = 24;
+    private static final int GRAIN_HERE = 0;
+    private static final int MAX_GRAIN_HERE = 8;
+    private static final int FIRST_TURTLE = 16;
+    private static final int NUM_TURTLES = 20;
+
+    // layout of a turtle record
+    private static final int TURTLE_BYTES = 56;
+    private static final int AGE = 0;
+    private static final int WEALTH = 4;
+    // wealth as recorded in the wealth histogram
+    private static final int COUNTED_WEALTH = 8;
+    private static final int X = 12;
+    private static final int Y = 16;
+    private static final int LIFE_EXPECTANCY = 20;
+    private static final int METABOLISM = 24;
+    private static final int VISION = 28;
+    // as Heading.ordinal()
+    private static final int HEADING = 32;
+    // next/previous turtle on the same patch, and the patch it is on
+    private static final int NEXT = 36;
+    private static final int PREV = 40;
+    private static final int PATCH = 44;
+    // position of the turtle's random stream, with split streams
+    private static final int RANDOM_STATE = 48;
+
+    // file to map storage from, or null for direct memory
+    private String storageFile;
+
+    // patch records
+    private ByteBuffer patches;
+    // for each x, prefix sums of whole grain along y, twice around the
+    // torus, as GrainPerception
+    private ByteBuffer northSouth;
+    // for each y, prefix sums of whole grain along x, twice around the torus
+    private ByteBuffer eastWest;
+    // turtle records
+    private ByteBuffer turtles;
+
+    // number of turtles holding each wealth value
+    private WealthHistogram wealthHistogram;
+    // generator each thread draws a turtle's stream from, positioned at the
+    // turtle's state for each use
+    private final ThreadLocal<StreamRandom> streams =
+            ThreadLocal.withInitial(() -> new StreamRandom(0, 0));
+
+    /**
+     * Read StorageFile, and allocate storage for the world
+     */
+    @Override
+    protected void setupEngineProperties(Properties properties) {
+        // optional: file to memory-map the world's storage from
+        storageFile = properties.getProperty("StorageFile");
+        try {
+            allocate();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Allocate a region of storage for patches, prefix sums and turtles
+     * each, in direct memory or mapped one after another from the storage
+     * file, turtles last
+     */
+    private void allocate() throws IOException {
+        long[] sizes = {(long) xPatches * yPatches * PATCH_BYTES,
+                (long) xPatches * (2 * yPatches + 1) * Integer.BYTES,
+                (long) yPatches * (2 * xPatches + 1) * Integer.BYTES,
+                (long) numPeople * TURTLE_BYTES};
+        ByteBuffer[] regions = new ByteBuffer[sizes.length];
+        for (long size : sizes) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "World too large for Engine=offheap: " + size +
+                                " bytes in one region");
+            }
+        }
+        if (storageFile == null) {
+            for (int r = 0; r < regions.length; r++) {
+                regions[r] = ByteBuffer.allocateDirect((int) sizes[r]);
+            }
+        } else {
+            System.out.println("Storage file: " + storageFile);
+            // mappings stay valid once the channel is closed
+            try (FileChannel channel = FileChannel.open(
+                    Paths.get(storageFile), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long offset = 0;
+                for (int r = 0; r < regions.length; r++) {
+                    regions[r] = channel.map(FileChannel.MapMode.READ_WRITE,
+                            offset, sizes[r]);
+                    offset += sizes[r];
+                }
+            }
+        }
+        for (ByteBuffer region : regions) {
+            region.order(ByteOrder.nativeOrder());
+        }
+        patches = regions[0];
+        northSouth = regions[1];
+        eastWest = regions[2];
+        turtles = regions[3];
+    }
+
+    /**
+     * Creates patches and initialises them with grain.
+     */
+    @Override
+    protected void setupPatches() {
+        double[] initialGrain = setupInitialGrain();
+        for (int p = 0; p < initialGrain.length; p++) {
+            setPatch(p, initialGrain[p], initialGrain[p]);
+        }
+        updatePerception();
+    }
+
+    /**
+     * Initialise a patch with no turtles on it
+     */
+    private void setPatch(int p, double grainHere, double maxGrainHere) {
+        int base = p * PATCH_BYTES;
+        patches.putDouble(base + GRAIN_HERE, grainHere);
+        patches.putDouble(base + MAX_GRAIN_HERE, maxGrainHere);
+        patches.putInt(base + FIRST_TURTLE, NONE);
+        patches.putInt(base + NUM_TURTLES, 0);
+    }
+
+    /**
+     * Set up the initial values for the turtle variables
+     */
+    @Override
+    protected void setupTurtles() {
+        wealthHistogram = new WealthHistogram();
+        for (int i = 0; i < numPeople; i++) {
+            int base = i * TURTLE_BYTES;
+            // determine location of new turtle
+            int x = random.nextInt(xPatches);
+            int y = random.nextInt(yPatches);
+            turtles.putInt(base + X, x);
+            turtles.putInt(base + Y, y);
+            link(i, x * yPatches + y);
+            Random turtleRandom = getTurtleRandom(i);
+            if (splitStreams) {
+                turtles.putLong(base + RANDOM_STATE,
+                        ((StreamRandom) turtleRandom).getState());
+                turtleRandom = turtleRandom(i);
+            }
+            setInitialTurtleVars(i, turtleRandom);
+            turtles.putInt(base + AGE, turtleRandom.nextInt(
+                    turtles.getInt(base + LIFE_EXPECTANCY)));
+            saveTurtleRandom(i, turtleRandom);
+            int wealth = turtles.getInt(base + WEALTH);
+            turtles.putInt(base + COUNTED_WEALTH, wealth);
+            wealthHistogram.add(wealth);
+        }
+    }
+
+    /**
+     * @return turtle i's random number generator: this thread's stream
+     * positioned at the turtle's state, or the shared generator in legacy
+     * mode
+     */
+    private Random turtleRandom(int i) {
+        if (!splitStreams) {
+            return random;
+        }
+        StreamRandom stream = streams.get();
+        stream.setState(turtles.getLong(i * TURTLE_BYTES + RANDOM_STATE));
+        return stream;
+    }
+
+    /**
+     * Store the position of turtle i's stream once it has drawn from it
+     */
+    private void saveTurtleRandom(int i, Random turtleRandom) {
+        if (splitStreams) {
+            turtles.putLong(i * TURTLE_BYTES + RANDOM_STATE,
+                    ((StreamRandom) turtleRandom).getState());
+        }
+    }
+
+    /**
+     * Reset a turtle's properties when it dies or is born, drawing random
+     * numbers in the same order as Turtle.setInitialTurtleVars
+     *
+     * @param i      turtle id
+     * @param random turtle's random number generator
+     */
+    private void setInitialTurtleVars(int i, Random random) {
+        int base = i * TURTLE_BYTES;
+        turtles.putInt(base + AGE, 0);
+        turtles.putInt(base + HEADING, random.nextInt(HEADING_DX.length));
+        int lifeExpectancy = lifeExpectancyMin +
+                random.nextInt(lifeExpectancyMax - lifeExpectancyMin + 1);
+        int metabolism = 1 + random.nextInt(metabolismMax);
+        int wealth;
+        if (!inheritance || tick == 0) {
+            wealth = metabolism + random.nextInt(WEALTH_BOUND);
+        } else {
+            wealth = metabolism + Math.max(0, turtles.getInt(base + WEALTH));
+        }
+        turtles.putInt(base + LIFE_EXPECTANCY, lifeExpectancy);
+        turtles.putInt(base + METABOLISM, metabolism);
+        turtles.putInt(base + WEALTH, wealth);
+        turtles.putInt(base + VISION, 1 + random.nextInt(maxVision));
+    }
+
+    /**
+     * Write the grain of each patch and the state of each turtle to a
+     * checkpoint, in the same layout as World
+     */
+    @Override
+    protected void writeState(CheckpointOutput out) {
+        for (int p = 0; p < xPatches * yPatches; p++) {
+            out.putDouble(patches.getDouble(p * PATCH_BYTES + GRAIN_HERE));
+            out.putDouble(patches.getDouble(p * PATCH_BYTES +
+                    MAX_GRAIN_HERE));
+        }
+        out.putInt(numPeople);
+        for (int i = 0; i < numPeople; i++) {
+            int base = i * TURTLE_BYTES;
+            out.putInt(turtles.getInt(base + AGE));
+            out.putInt(turtles.getInt(base + WEALTH));
+            out.putInt(turtles.getInt(base + X));
+            out.putInt(turtles.getInt(base + Y));
+            out.putInt(turtles.getInt(base + LIFE_EXPECTANCY));
+            out.putInt(turtles.getInt(base + METABOLISM));
+            out.putInt(turtles.getInt(base + VISION));
+            out.putByte(turtles.getInt(base + HEADING));
+            writeTurtleRandom(out, turtleRandom(i));
+        }
+    }
+
+    /**
+     * Restore patches and turtles from a checkpoint
+     */
+    @Override
+    protected void readState(ByteBuffer in) {
+        // the checkpoint may hold a different number of turtles to the
+        // properties storage was allocated for
+        int checkpointPeople = in.getInt(in.position() +
+                xPatches * yPatches * 2 * Double.BYTES);
+        if (checkpointPeople != numPeople) {
+            numPeople = checkpointPeople;
+            try {
+                allocate();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        for (int p = 0; p < xPatches * yPatches; p++) {
+            setPatch(p, in.getDouble(), in.getDouble());
+        }
+        updatePerception();
+
+        in.getInt();
+        wealthHistogram = new WealthHistogram();
+        for (int i = 0; i < numPeople; i++) {
+            int base = i * TURTLE_BYTES;
+            turtles.putInt(base + AGE, in.getInt());
+            int wealth = in.getInt();
+            turtles.putInt(base + WEALTH, wealth);
+            int x = in.getInt();
+            int y = in.getInt();
+            turtles.putInt(base + X, x);
+            turtles.putInt(base + Y, y);
+            turtles.putInt(base + LIFE_EXPECTANCY, in.getInt());
+            turtles.putInt(base + METABOLISM, in.getInt());
+            turtles.putInt(base + VISION, in.getInt());
+            turtles.putInt(base + HEADING, in.get());
+            Random turtleRandom = readTurtleRandom(in, i);
+            if (splitStreams) {
+                turtles.putLong(base + RANDOM_STATE,
+                        ((StreamRandom) turtleRandom).getState());
+            }
+            link(i, x * yPatches + y);
+            turtles.putInt(base + COUNTED_WEALTH, wealth);
+            wealthHistogram.add(wealth);
+        }
+    }
+
+    /**
+     * Make turtles turn towards grain, in parallel as in World
+     */
+    @Override
+    protected void turnTowardsGrain() {
+        executor.forEach(numPeople, this::turnTowardsGrain);
+    }
+
+    /**
+     * Harvest grain, columns of patches in parallel
+     */
+    @Override
+    protected void harvest() {
+        executor.forEach(xPatches, x -> {
+            for (int p = x * yPatches; p < (x + 1) * yPatches; p++) {
+                harvest(p);
+            }
+        });
+    }
+
+    /**
+     * Run each turtle, in parallel with a random stream per turtle, as in
+     * World
+     */
+    @Override
+    protected void moveEatAgeDie() {
+        if (splitStreams) {
+            executor.forEach(numPeople, this::moveEatAgeDie);
+        } else {
+            for (int i = 0; i < numPeople; i++) {
+                moveEatAgeDie(i);
+            }
+        }
+        // record where each turtle moved to and its new wealth
+        for (int i = 0; i < numPeople; i++) {
+            int base = i * TURTLE_BYTES;
+            move(i, turtles.getInt(base + X) * yPatches +
+                    turtles.getInt(base + Y));
+            int wealth = turtles.getInt(base + WEALTH);
+            wealthHistogram.move(turtles.getInt(base + COUNTED_WEALTH),
+                    wealth);
+            turtles.putInt(base + COUNTED_WEALTH, wealth);
+        }
+    }
+
+    /**
+     * Grow grain on every patch
+     */
+    @Override
+    protected void growGrain() {
+        executor.forEach(xPatches, x -> {
+            for (int p = x * yPatches; p < (x + 1) * yPatches; p++) {
+                int base = p * PATCH_BYTES;
+                double grainHere = patches.getDouble(base + GRAIN_HERE);
+                double maxGrainHere = patches.getDouble(base +
+                        MAX_GRAIN_HERE);
+                if (grainHere < maxGrainHere) {
+                    patches.putDouble(base + GRAIN_HERE, Math.min(
+                            grainHere + numGrainGrown, maxGrainHere));
+                }
+            }
+        });
+    }
+
+    /**
+     * Sum the grain left after harvest and growth, for next tick: prefix
+     * sums along every column and row, as GrainPerception
+     */
+    @Override
+    protected void updatePerception() {
+        int columnLength = 2 * yPatches + 1;
+        executor.forEach(xPatches, x -> {
+            int base = x * columnLength;
+            int sum = 0;
+            northSouth.putInt(base * Integer.BYTES, 0);
+            for (int k = 0; k < 2 * yPatches; k++) {
+                sum += wholeGrain(x * yPatches + k % yPatches);
+                northSouth.putInt((base + k + 1) * Integer.BYTES, sum);
+            }
+        });
+        int rowLength = 2 * xPatches + 1;
+        executor.forEach(yPatches, y -> {
+            int base = y * rowLength;
+            int sum = 0;
+            eastWest.putInt(base * Integer.BYTES, 0);
+            for (int k = 0; k < 2 * xPatches; k++) {
+                sum += wholeGrain((k % xPatches) * yPatches + y);
+                eastWest.putInt((base + k + 1) * Integer.BYTES, sum);
+            }
+        });
+    }
+
+    /**
+     * @return whole grain on patch p
+     */
+    private int wholeGrain(int p) {
+        return (int) patches.getDouble(p * PATCH_BYTES + GRAIN_HERE);
+    }
+
+    /**
+     * Turn turtle i towards the heading with the most grain within its
+     * vision, keeping the first best heading in Heading order on ties
+     *
+     * @param i turtle id
+     */
+    private void turnTowardsGrain(int i) {
+        int base = i * TURTLE_BYTES;
+        int x = turtles.getInt(base + X);
+        int y = turtles.getInt(base + Y);
+        int vision = turtles.getInt(base + VISION);
+        int bestAmount = 0;
+        Heading bestDirection = Heading.NORTH;
+        for (Heading h : HEADINGS) {
+            int grain = grainAhead(x, y, h, vision);
+            if (grain > bestAmount) {
+                bestAmount = grain;
+                bestDirection = h;
+            }
+        }
+        turtles.putInt(base + HEADING, bestDirection.ordinal());
+    }
+
+    /**
+     * Total whole grain on the distance patches ahead of (x,y) in a heading,
+     * as GrainPerception.grainAhead
+     */
+    private int grainAhead(int x, int y, Heading heading, int distance) {
+        switch (heading) {
+            case NORTH:
+                return sumAlong(northSouth, x * (2 * yPatches + 1), yPatches,
+                        y + 1, distance);
+            case SOUTH:
+                return sumAlong(northSouth, x * (2 * yPatches + 1), yPatches,
+                        y - distance, distance);
+            case EAST:
+                return sumAlong(eastWest, y * (2 * xPatches + 1), xPatches,
+                        x + 1, distance);
+            default:
+                return sumAlong(eastWest, y * (2 * xPatches + 1), xPatches,
+                        x - distance, distance);
+        }
+    }
+
+    /**
+     * Sum a wrapped run of patches from one column or row of prefix sums,
+     * as GrainPerception.sumAlong
+     */
+    private static int sumAlong(ByteBuffer prefix, int base, int bound,
+                                int start, int length) {
+        int from = Math.floorMod(start, bound);
+        int laps = length / bound;
+        int rest = length % bound;
+        return laps * prefix.getInt((base + bound) * Integer.BYTES) +
+                prefix.getInt((base + from + rest) * Integer.BYTES) -
+                prefix.getInt((base + from) * Integer.BYTES);
+    }
+
+    /**
+     * Share the grain on patch p evenly between the turtles on it
+     *
+     * @param p patch index
+     */
+    private void harvest(int p) {
+        int base = p * PATCH_BYTES;
+        int numTurtles = patches.getInt(base + NUM_TURTLES);
+        if (numTurtles == 0) {
+            return;
+        }
+        int share = (int) (patches.getDouble(base + GRAIN_HERE) / numTurtles);
+        for (int id = patches.getInt(base + FIRST_TURTLE); id != NONE;
+             id = turtles.getInt(id * TURTLE_BYTES + NEXT)) {
+            int wealth = id * TURTLE_BYTES + WEALTH;
+            turtles.putInt(wealth, turtles.getInt(wealth) + share);
+        }
+        patches.putDouble(base + GRAIN_HERE, 0);
+    }
+
+    /**
+     * Move turtle i one patch along its heading, then consume grain, grow
+     * older, and be reborn if it has died. Only changes turtle i; go()
+     * then records the move in the patch lists and wealth histogram.
+     *
+     * @param i turtle id
+     */
+    private void moveEatAgeDie(int i) {
+        int base = i * TURTLE_BYTES;
+        int heading = turtles.getInt(base + HEADING);
+        turtles.putInt(base + X, wrap(turtles.getInt(base + X) +
+                HEADING_DX[heading], xPatches));
+        turtles.putInt(base + Y, wrap(turtles.getInt(base + Y) +
+                HEADING_DY[heading], yPatches));
+
+        int wealth = turtles.getInt(base + WEALTH) -
+                turtles.getInt(base + METABOLISM);
+        int age = turtles.getInt(base + AGE) + 1;
+        turtles.putInt(base + WEALTH, wealth);
+        turtles.putInt(base + AGE, age);
+        if (wealth < 0 || age >= turtles.getInt(base + LIFE_EXPECTANCY)) {
+            Random turtleRandom = turtleRandom(i);
+            setInitialTurtleVars(i, turtleRandom);
+            saveTurtleRandom(i, turtleRandom);
+        }
+    }
+
+    /**
+     * Add turtle id to the front of the list of turtles on a patch
+     */
+    private void link(int id, int patch) {
+        int base = id * TURTLE_BYTES;
+        int patchBase = patch * PATCH_BYTES;
+        int oldHead = patches.getInt(patchBase + FIRST_TURTLE);
+        turtles.putInt(base + NEXT, oldHead);
+        turtles.putInt(base + PREV, NONE);
+        if (oldHead != NONE) {
+            turtles.putInt(oldHead * TURTLE_BYTES + PREV, id);
+        }
+        patches.putInt(patchBase + FIRST_TURTLE, id);
+        patches.putInt(patchBase + NUM_TURTLES,
+                patches.getInt(patchBase + NUM_TURTLES) + 1);
+        turtles.putInt(base + PATCH, patch);
+    }
+
+    /**
+     * Move turtle id from the patch it was on to another
+     */
+    private void move(int id, int patch) {
+        int base = id * TURTLE_BYTES;
+        int from = turtles.getInt(base + PATCH);
+        if (from == patch) {
+            return;
+        }
+        // unlink from the patch it was on
+        int before = turtles.getInt(base + PREV);
+        int after = turtles.getInt(base + NEXT);
+        if (before == NONE) {
+            patches.putInt(from * PATCH_BYTES + FIRST_TURTLE, after);
+        } else {
+            turtles.putInt(before * TURTLE_BYTES + NEXT, after);
+        }
+        if (after != NONE) {
+            turtles.putInt(after * TURTLE_BYTES + PREV, before);
+        }
+        patches.putInt(from * PATCH_BYTES + NUM_TURTLES,
+                patches.getInt(from * PATCH_BYTES + NUM_TURTLES) - 1);
+        link(id, patch);
+    }
+
+    /**
+     * @return histogram of the current wealth of each turtle
+     */
+    @Override
+    public WealthHistogram getWealthHistogram() {
+        return wealthHistogram;
+    }
+
+    /**
+     * Copy the grain and number of turtles on each patch
+     */
+    @Override
+    protected void copyFrame(double[] grain, int[] turtles) {
+        for (int p = 0; p < grain.length; p++) {
+            grain[p] = patches.getDouble(p * PATCH_BYTES + GRAIN_HERE);
+            turtles[p] = patches.getInt(p * PATCH_BYTES + NUM_TURTLES);
+        }
+    }
+}
@@ -3,8 +3,6 @@
  * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
  */
 
-import java.util.List;
-
 /**
  * Represents a discrete patch of the world.  Grain grows on each patch
  * and can be harvested
@@ -14,6 +12,8 @@ public class Patch {
     private double grainHere;
     // amount of grain that grows at a given interval
     private final int numGrainGrown;
+    // world the patch belongs to
+    private final World world;
     // maximum grain the patch can hold
     private double maxGrainHere;
     // x, y coordinates of the patch
@@ -23,12 +23,15 @@ public class Patch {
     /**
      * initialize the patch
      *
+     * @param world         world the patch belongs to
      * @param x             x coordinates of the patch
      * @param y             y coordinates of the patch
      * @param maxGrainHere  maximum grain the patch can hold
      * @param numGrainGrown amount of grain that grows at a given interval
      */
-    public Patch(int x, int y, int maxGrainHere, int numGrainGrown) {
+    public Patch(World world, int x, int y, int maxGrainHere,
+                 int numGrainGrown) {
+        this.world = world;
         this.maxGrainHere = maxGrainHere;
         this.grainHere = maxGrainHere;
         this.numGrainGrown = numGrainGrown;
@@ -58,21 +61,24 @@ public class Patch {
      * on the patch after harvest, unless there is no turtle on the patch.
      */
     public void harvest() {
-        // get all of the turtles on the patch
-        List<Turtle> turtleList = World.getInstance().getTurtlesOnPatch(X, Y);
+        // look up the turtles on the patch in the occupancy index
+        PatchOccupancy occupancy = world.getOccupancy();
+        int numTurtles = occupancy.count(X, Y);
 
         // if there are no turtles present, there's nothing left to do
-        if (turtleList.size() == 0) {
+        if (numTurtles == 0) {
             return;
         }
 
         // determine amount of grain to share, by dividing it evenly among
         // the turtles on the patch, rounding down
-        double grainToShare = getGrainHere() / turtleList.size();
+        double grainToShare = getGrainHere() / numTurtles;
 
         // have turtles harvest before any turtle sets the patch to 0
-        for (Turtle t : turtleList) {
+        for (int id = occupancy.first(X, Y); id != PatchOccupancy.NONE;
+             id = occupancy.next(id)) {
             // update the wealth of each turtle
+            Turtle t = world.getTurtle(id);
             int turtleWealth = t.getWealth() + (int) grainToShare;
             t.setWealth(turtleWealth);
         }
@@ -0,0 +1,229 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Cache of the initial grain of every patch, after seeding and diffusion,
+ * which depends only on the random seed, the size of the world, the
+ * percentage of best land, how random numbers are drawn and how grain is
+ * diffused.  Each entry is a small binary file holding those inputs, the
+ * state of the world's random number generator once the patches were set
+ * up, so that turtles are then placed exactly as without the cache, and
+ * the whole grain of each patch.
+ * Usage as an entrypoint: PatchCache {cache file} [csv file] exports an
+ * entry as the csv World writes with OUTPUT_GRAIN_DISTRIBUTION.
+ */
+public class PatchCache {
+    // identifies a cache entry: "WDPC"
+    private static final int MAGIC = 0x57445043;
+    // version of the format
+    private static final short VERSION = 2;
+
+    // directory holding the cache entries
+    private final Path directory;
+
+    /**
+     * An entry of the cache
+     */
+    public static class Entry {
+        // whole grain of each patch, indexed by x * yPatches + y
+        public final double[] grain;
+        // world's random number generator once the patches were set up
+        public final Random random;
+
+        Entry(double[] grain, Random random) {
+            this.grain = grain;
+            this.random = random;
+        }
+    }
+
+    /**
+     * @param directory directory holding the cache entries, created if
+     *                  needed
+     */
+    public PatchCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Usage: PatchCache {cache file} [csv file]
+     * Writes the entry's patches as "grain-here,max-grain-here" lines, to
+     * the csv file or by default patch-default-seed-{seed}.csv
+     */
+    public static void main(String[] args) throws IOException {
+        ByteBuffer in = map(Paths.get(args[0]));
+        int seed = in.getInt();
+        int xPatches = in.getInt();
+        int yPatches = in.getInt();
+        in.getInt();
+        in.get();
+        in.get();
+        Simulation.readRandom(in);
+        double[] grain = readGrain(in, xPatches * yPatches);
+        String csv = args.length > 1 ? args[1] :
+                String.format("patch-default-seed-%d.csv", seed);
+        writeCsv(grain, csv);
+        System.out.println("Output csv: " + csv);
+    }
+
+    /**
+     * Write a csv of the initial grain of every patch, in the same format
+     * as World with OUTPUT_GRAIN_DISTRIBUTION, each patch holding its
+     * maximum grain
+     *
+     * @param grain whole grain of each patch, indexed by x * yPatches + y
+     * @param csv   csv file to write
+     */
+    public static void writeCsv(double[] grain, String csv) {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(csv))) {
+            // print header
+            pw.println("grain-here,max-grain-here");
+            // print each line
+            for (double g : grain) {
+                pw.println(g + "," + g);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Look up the patches of a world
+     *
+     * @return cached entry, or null if there is none for these inputs
+     * @throws IOException when reading an entry fails
+     */
+    public Entry load(int seed, int xPatches, int yPatches,
+                      int percentBestLand, boolean splitStreams,
+                      boolean simultaneous) throws IOException {
+        ByteBuffer in;
+        try {
+            in = map(fileFor(seed, xPatches, yPatches, percentBestLand,
+                    splitStreams, simultaneous));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (in.getInt() != seed || in.getInt() != xPatches ||
+                in.getInt() != yPatches || in.getInt() != percentBestLand ||
+                (in.get() != 0) != splitStreams ||
+                (in.get() != 0) != simultaneous) {
+            return null;
+        }
+        Random random = Simulation.readRandom(in);
+        return new Entry(readGrain(in, xPatches * yPatches), random);
+    }
+
+    /**
+     * Store the patches of a world.  Writes to a temporary file then moves
+     * it into place, so that concurrent runs only ever read whole entries.
+     *
+     * @param grain  whole grain of each patch, indexed by x * yPatches + y
+     * @param random world's random number generator once the patches were
+     *               set up
+     * @throws IOException when writing the entry fails
+     */
+    public void store(int seed, int xPatches, int yPatches,
+                      int percentBestLand, boolean splitStreams,
+                      boolean simultaneous, double[] grain, Random random)
+            throws IOException {
+        Files.createDirectories(directory);
+        CheckpointOutput size = new CheckpointOutput(null);
+        write(size, seed, xPatches, yPatches, percentBestLand, splitStreams,
+                simultaneous, grain, random);
+        ByteBuffer buffer = ByteBuffer.allocate((int) size.size());
+        write(new CheckpointOutput(buffer), seed, xPatches, yPatches,
+                percentBestLand, splitStreams, simultaneous, grain, random);
+        buffer.flip();
+
+        Path file = fileFor(seed, xPatches, yPatches, percentBestLand,
+                splitStreams, simultaneous);
+        Path temporary = Files.createTempFile(directory, "patches", ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write an entry
+     */
+    private static void write(CheckpointOutput out, int seed, int xPatches,
+                              int yPatches, int percentBestLand,
+                              boolean splitStreams, boolean simultaneous,
+                              double[] grain, Random random) {
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putInt(seed);
+        out.putInt(xPatches);
+        out.putInt(yPatches);
+        out.putInt(percentBestLand);
+        out.putByte(splitStreams ? 1 : 0);
+        out.putByte(simultaneous ? 1 : 0);
+        Simulation.writeRandom(out, random);
+        // grain is whole once diffused and rounded down
+        for (double g : grain) {
+            out.putInt((int) g);
+        }
+    }
+
+    /**
+     * @return file of the entry for a world
+     */
+    private Path fileFor(int seed, int xPatches, int yPatches,
+                         int percentBestLand, boolean splitStreams,
+                         boolean simultaneous) {
+        return directory.resolve(String.format(
+                "patches-%s-%s-seed-%d-%dx%d-best-%d.bin",
+                splitStreams ? "split" : "legacy",
+                simultaneous ? "simultaneous" : "sequential", seed, xPatches,
+                yPatches, percentBestLand));
+    }
+
+    /**
+     * Map an entry and check its header
+     *
+     * @return buffer positioned after the magic number and version
+     */
+    private static ByteBuffer map(Path file) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        if (in.remaining() < Integer.BYTES + Short.BYTES ||
+                in.getInt() != MAGIC || in.getShort() != VERSION) {
+            throw new IOException("Not a patch cache entry: " + file);
+        }
+        return in;
+    }
+
+    /**
+     * Read the whole grain of each patch
+     */
+    private static double[] readGrain(ByteBuffer in, int numPatches) {
+        double[] grain = new double[numPatches];
+        for (int p = 0; p < numPatches; p++) {
+            grain[p] = in.getInt();
+        }
+        return grain;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.util.Arrays;
+
+/**
+ * Spatial index recording which turtles are on each patch.
+ * Each patch holds an intrusive doubly linked list of turtle ids, stored in
+ * primitive arrays, so that moving a turtle is O(1) and visiting the turtles
+ * on a patch allocates nothing.
+ * Patches are indexed by their flattened index x * yPatches + y.
+ */
+public class PatchOccupancy {
+    // marks the end of a patch's list of turtles
+    public static final int NONE = -1;
+
+    // number of patches in y direction
+    private final int yPatches;
+    // first turtle on each patch
+    private final int[] head;
+    // number of turtles on each patch
+    private final int[] count;
+    // patch each turtle is on, indexed by turtle id
+    private int[] patchOf;
+    // next/previous turtle on the same patch, indexed by turtle id
+    private int[] next;
+    private int[] prev;
+
+    /**
+     * Create an empty index
+     *
+     * @param xPatches number of patches in x direction
+     * @param yPatches number of patches in y direction
+     * @param capacity expected number of turtles
+     */
+    public PatchOccupancy(int xPatches, int yPatches, int capacity) {
+        this.yPatches = yPatches;
+        head = new int[xPatches * yPatches];
+        Arrays.fill(head, NONE);
+        count = new int[xPatches * yPatches];
+        patchOf = new int[Math.max(capacity, 1)];
+        next = new int[Math.max(capacity, 1)];
+        prev = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Place a turtle on a patch
+     *
+     * @param id turtle id
+     * @param x  x coordinate of patch
+     * @param y  y coordinate of patch
+     */
+    public void add(int id, int x, int y) {
+        ensureCapacity(id);
+        link(id, index(x, y));
+    }
+
+    /**
+     * Remove every turtle from every patch
+     */
+    public void clear() {
+        Arrays.fill(head, NONE);
+        Arrays.fill(count, 0);
+    }
+
+    /**
+     * Move a turtle from the patch it was on to another
+     *
+     * @param id  turtle id
+     * @param toX x coordinate of patch the turtle is entering
+     * @param toY y coordinate of patch the turtle is entering
+     */
+    public void move(int id, int toX, int toY) {
+        int from = patchOf[id];
+        int to = index(toX, toY);
+        if (from == to) {
+            return;
+        }
+        unlink(id, from);
+        link(id, to);
+    }
+
+    /**
+     * @return number of turtles on patch (x,y)
+     */
+    public int count(int x, int y) {
+        return count[index(x, y)];
+    }
+
+    /**
+     * @return id of the first turtle on patch (x,y), or NONE if it is empty
+     */
+    public int first(int x, int y) {
+        return head[index(x, y)];
+    }
+
+    /**
+     * @param id turtle id
+     * @return id of the next turtle on the same patch, or NONE if there are
+     * no more
+     */
+    public int next(int id) {
+        return next[id];
+    }
+
+    /**
+     * Copy the number of turtles on each patch, column by column, into a
+     * larger grid
+     *
+     * @param dest   grid to copy into
+     * @param offset index in dest of patch (0,0)
+     * @param stride distance in dest between one column and the next
+     */
+    public void copyCounts(int[] dest, int offset, int stride) {
+        for (int x = 0; x < count.length / yPatches; x++) {
+            System.arraycopy(count, x * yPatches, dest, offset + x * stride,
+                    yPatches);
+        }
+    }
+
+    /**
+     * @return flattened index of patch (x,y)
+     */
+    private int index(int x, int y) {
+        return x * yPatches + y;
+    }
+
+    /**
+     * Add turtle id to the front of the list for a patch
+     */
+    private void link(int id, int patch) {
+        int oldHead = head[patch];
+        next[id] = oldHead;
+        prev[id] = NONE;
+        if (oldHead != NONE) {
+            prev[oldHead] = id;
+        }
+        head[patch] = id;
+        count[patch]++;
+        patchOf[id] = patch;
+    }
+
+    /**
+     * Remove turtle id from the list for a patch
+     */
+    private void unlink(int id, int patch) {
+        int before = prev[id];
+        int after = next[id];
+        if (before == NONE) {
+            head[patch] = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+        count[patch]--;
+    }
+
+    /**
+     * Grow the per-turtle arrays so that they can hold id
+     */
+    private void ensureCapacity(int id) {
+        if (id >= next.length) {
+            int capacity = Math.max(id + 1, next.length * 2);
+            patchOf = Arrays.copyOf(patchOf, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarises the Gini trajectories of a range of seeds run with the same
+ * properties, tick by tick, as each run finishes: the mean and variance by
+ * Welford's online algorithm, and quantiles by the P-square algorithm
+ * (Jain & Chlamtac, 1985), which tracks each quantile with five markers.
+ * Memory grows with the number of ticks, not the number of runs.
+ * Runs are folded in in seed order, holding runs that finish early until
+ * the seeds before them are done, so the summary is the same however many
+ * workers ran them.
+ */
+public class SeedAggregator {
+    // number of markers P-square uses for each quantile
+    private static final int MARKERS = 5;
+
+    // probabilities of the quantiles to estimate, e.g. 0.5 for the median
+    private final double[] probabilities;
+    // for each quantile, how far each marker's desired position moves per
+    // value added
+    private final double[][] increments;
+    // next seed to fold in
+    private int nextSeed;
+    // runs that finished before the seeds before them, by seed; null for a
+    // run that failed
+    private final Map<Integer, float[]> pending = new TreeMap<>();
+
+    // number of ticks summarised
+    private int numTicks;
+    // number of runs folded in at each tick
+    private int[] count = new int[0];
+    // running mean of each tick
+    private double[] mean = new double[0];
+    // running sum of squared differences from the mean of each tick
+    private double[] m2 = new double[0];
+    // marker heights and positions of each quantile of each tick, indexed by
+    // (tick * probabilities.length + quantile) * MARKERS + marker; until a
+    // tick has MARKERS runs, heights holds its values in ascending order
+    private double[] heights = new double[0];
+    private double[] positions = new double[0];
+
+    /**
+     * @param firstSeed     first seed that will be run
+     * @param probabilities probabilities of the quantiles to estimate
+     */
+    public SeedAggregator(int firstSeed, double[] probabilities) {
+        for (double p : probabilities) {
+            if (p <= 0 || p >= 1) {
+                throw new IllegalArgumentException(
+                        "Quantiles must be between 0 and 1: " + p);
+            }
+        }
+        this.nextSeed = firstSeed;
+        this.probabilities = probabilities.clone();
+        increments = new double[probabilities.length][];
+        for (int q = 0; q < probabilities.length; q++) {
+            double p = probabilities[q];
+            increments[q] = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+        }
+    }
+
+    /**
+     * Fold in the Gini trajectory of a finished run
+     *
+     * @param seed random seed of the run
+     * @param gini gini index of each tick of the run
+     */
+    public synchronized void add(int seed, float[] gini) {
+        pending.put(seed, gini);
+        foldPending();
+    }
+
+    /**
+     * Record that a run failed, so that later seeds are not held for it
+     *
+     * @param seed random seed of the run
+     */
+    public synchronized void skip(int seed) {
+        pending.put(seed, null);
+        foldPending();
+    }
+
+    /**
+     * Fold in every pending run whose earlier seeds are all done
+     */
+    private void foldPending() {
+        while (pending.containsKey(nextSeed)) {
+            float[] gini = pending.remove(nextSeed);
+            if (gini != null) {
+                fold(gini);
+            }
+            nextSeed++;
+        }
+    }
+
+    /**
+     * Fold one run's trajectory into the statistics of each tick
+     */
+    private void fold(float[] gini) {
+        ensureTicks(gini.length);
+        for (int t = 0; t < gini.length; t++) {
+            double x = gini[t];
+            // Welford's update
+            count[t]++;
+            double delta = x - mean[t];
+            mean[t] += delta / count[t];
+            m2[t] += delta * (x - mean[t]);
+
+            for (int q = 0; q < probabilities.length; q++) {
+                addToQuantile((t * probabilities.length + q) * MARKERS,
+                        increments[q], count[t], x);
+            }
+        }
+    }
+
+    /**
+     * Add a value to the P-square estimate of a quantile
+     *
+     * @param base       index of the quantile's first marker
+     * @param increments movement of each marker's desired position per
+     *                   value
+     * @param n          number of values including this one
+     * @param x          value to add
+     */
+    private void addToQuantile(int base, double[] increments, int n,
+                               double x) {
+        if (n <= MARKERS) {
+            // keep the first values sorted, by insertion
+            int i = base + n - 1;
+            while (i > base && heights[i - 1] > x) {
+                heights[i] = heights[i - 1];
+                i--;
+            }
+            heights[i] = x;
+            if (n == MARKERS) {
+                for (int m = 0; m < MARKERS; m++) {
+                    positions[base + m] = m + 1;
+                }
+            }
+            return;
+        }
+
+        // find the cell the value falls in, extending the extremes
+        int k;
+        if (x < heights[base]) {
+            heights[base] = x;
+            k = 0;
+        } else if (x >= heights[base + MARKERS - 1]) {
+            heights[base + MARKERS - 1] = x;
+            k = MARKERS - 2;
+        } else {
+            k = 0;
+            while (x >= heights[base + k + 1]) {
+                k++;
+            }
+        }
+        for (int m = k + 1; m < MARKERS; m++) {
+            positions[base + m]++;
+        }
+
+        // adjust the middle markers towards their desired positions
+        for (int m = 1; m < MARKERS - 1; m++) {
+            int i = base + m;
+            double desired = 1 + (n - 1) * increments[m];
+            double d = desired - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1) ||
+                    (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = d > 0 ? 1 : -1;
+                double parabolic = heights[i] + step /
+                        (positions[i + 1] - positions[i - 1]) *
+                        ((positions[i] - positions[i - 1] + step) *
+                                (heights[i + 1] - heights[i]) /
+                                (positions[i + 1] - positions[i]) +
+                                (positions[i + 1] - positions[i] - step) *
+                                        (heights[i] - heights[i - 1]) /
+                                        (positions[i] - positions[i - 1]));
+                if (heights[i - 1] < parabolic && parabolic < heights[i + 1]) {
+                    heights[i] = parabolic;
+                } else {
+                    heights[i] += step * (heights[i + step] - heights[i]) /
+                            (positions[i + step] - positions[i]);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+
+    /**
+     * Grow the per-tick statistics to hold a number of ticks
+     */
+    private void ensureTicks(int ticks) {
+        if (ticks <= numTicks) {
+            return;
+        }
+        numTicks = ticks;
+        count = Arrays.copyOf(count, ticks);
+        mean = Arrays.copyOf(mean, ticks);
+        m2 = Arrays.copyOf(m2, ticks);
+        heights = Arrays.copyOf(heights,
+                ticks * probabilities.length * MARKERS);
+        positions = Arrays.copyOf(positions,
+                ticks * probabilities.length * MARKERS);
+    }
+
+    /**
+     * Estimate of a quantile at a tick: the P-square middle marker, or
+     * while there are fewer values than markers, interpolated between them
+     */
+    private double quantile(int t, int q) {
+        int base = (t * probabilities.length + q) * MARKERS;
+        int n = count[t];
+        if (n >= MARKERS) {
+            return heights[base + MARKERS / 2];
+        }
+        double rank = probabilities[q] * (n - 1);
+        int below = (int) rank;
+        if (below + 1 >= n) {
+            return heights[base + below];
+        }
+        return heights[base + below] + (rank - below) *
+                (heights[base + below + 1] - heights[base + below]);
+    }
+
+    /**
+     * Write "tick,runs,mean,variance,q..." for each tick to a csv file,
+     * with the sample variance and a column per quantile
+     *
+     * @param file csv file to write
+     * @throws IOException when writing fails
+     */
+    public synchronized void writeCsv(Path file) throws IOException {
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file))) {
+            StringBuilder header = new StringBuilder("tick,runs,mean,variance");
+            for (double p : probabilities) {
+                header.append(",q").append(p);
+            }
+            pw.println(header);
+            for (int t = 0; t < numTicks; t++) {
+                StringBuilder line = new StringBuilder();
+                line.append(t).append(',').append(count[t]).append(',')
+                        .append(mean[t]).append(',')
+                        .append(count[t] > 1 ? m2[t] / (count[t] - 1) : 0.0);
+                for (int q = 0; q < probabilities.length; q++) {
+                    line.append(',').append(quantile(t, q));
+                }
+                pw.println(line);
+            }
+        }
+    }
+
+    /**
+     * Collects the gini index of each tick of one run, to be folded in
+     * once the run has finished
+     */
+    public static class Trajectory implements StatisticsSink {
+        // gini index of each tick so far
+        private float[] gini = new float[512];
+        // number of ticks recorded
+        private int numTicks;
+
+        @Override
+        public void record(int tick, float value) {
+            if (numTicks == gini.length) {
+                gini = Arrays.copyOf(gini, gini.length * 2);
+            }
+            gini[numTicks++] = value;
+        }
+
+        /**
+         * @return gini index of each tick recorded
+         */
+        public float[] toArray() {
+            return Arrays.copyOf(gini, numTicks);
+        }
+    }
+
+    /**
+     * @return number of runs folded in at a tick
+     */
+    public synchronized int getCount(int tick) {
+        return tick < numTicks ? count[tick] : 0;
+    }
+
+    /**
+     * @return mean gini index at a tick
+     */
+    public synchronized double getMean(int tick) {
+        return mean[tick];
+    }
+
+    /**
+     * @return sample variance of the gini index at a tick
+     */
+    public synchronized double getVariance(int tick) {
+        return count[tick] > 1 ? m2[tick] / (count[tick] - 1) : 0;
+    }
+
+    /**
+     * @param tick     tick to estimate at
+     * @param quantile index of the quantile in the probabilities given
+     * @return estimate of the quantile of the gini index at a tick
+     */
+    public synchronized double getQuantile(int tick, int quantile) {
+        return quantile(tick, quantile);
+    }
+}
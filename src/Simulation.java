@@ -0,0 +1,1320 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Base class for the simulation engines of the wealth distribution model.
+ * Holds the run parameters read from the properties file, the random number
+ * generator and the statistics collected each tick, while each engine
+ * decides how the patches and turtles themselves are stored.
+ * Available engines:
+ * - object: {@link World}, patches and turtles are objects
+ * - array: {@link ArrayWorld}, patches and turtles are held in flat
+ * primitive arrays
+ * - tiled: {@link TiledWorld}, the torus is split into tiles, each holding
+ * its own patches and turtles, processed in parallel
+ * - offheap: {@link OffHeapWorld}, patches and turtles are held in fixed
+ * size records outside the Java heap, in direct or memory-mapped buffers
+ */
+public abstract class Simulation {
+    // properties file used when none is given
+    public static final String DEFAULT_PROPERTIES_FILE =
+            "props/wealth-distrib-default.properties";
+    // engine used when none is given
+    public static final String DEFAULT_ENGINE = "object";
+    // extension of checkpoint files
+    public static final String CHECKPOINT_EXTENSION = ".ckpt";
+    // identifies a checkpoint file: "WDCK"
+    private static final int CHECKPOINT_MAGIC = 0x5744434b;
+    // version of the checkpoint format
+    private static final short CHECKPOINT_VERSION = 1;
+    // how a random number generator is saved in a checkpoint: the world's
+    // shared generator, a stream's position, or a serialized Random
+    private static final int RANDOM_SHARED = 0;
+    private static final int RANDOM_STREAM = 1;
+    private static final int RANDOM_SERIALIZED = 2;
+    // whether to output gini coefficient at each tick
+    private final boolean PRINT_GINI = false;
+    // proportion of grain to diffuse during setup of patches
+    protected final float GRAIN_DIFFUSION_PROPORTION = 0.25f;
+    // maximum grain any patch can hold
+    protected final int MAX_GRAIN = 50;
+    // When computing new wealth of a turtle, the random component of wealth
+    // is bounded by this value
+    protected final int WEALTH_BOUND = 50;
+
+    // whether to implement inheritance feature
+    protected boolean inheritance = false;
+    // number of iterations to run simulation for
+    protected int maxTicks;
+
+    // whether to compute the gini coefficient in closed form, rather than
+    // exactly as computeGini would
+    private boolean giniClosedForm;
+    // receive the statistics of each tick as the run goes
+    private final List<StatisticsSink> sinks = new ArrayList<>();
+    // whether to write the statistics of each tick to the run's output
+    // files
+    private boolean writeOutput;
+    // formats of the run's output files: csv and/or binary, or none
+    private List<String> outputFormats;
+    // whether binary output is delta encoded
+    private boolean deltaEncoded;
+    // commit the run was built from, recorded in binary output
+    private String commit;
+    // number of ticks between writes of output files
+    private int flushInterval;
+    // properties of the run, from the properties file and overrides
+    private Properties runProperties;
+
+    // checkpoint to restore the world from rather than setting it up, or
+    // null
+    private Path checkpoint;
+    // tick to write a checkpoint at, or -1 for none
+    private int checkpointAt;
+    // file to write the checkpoint to, or null for the default name
+    private String checkpointFile;
+    // cache of initial patch grain, or null to always diffuse it
+    private PatchCache patchCache;
+    // name of output files, before the seed
+    private String runName;
+    // number of ticks in each window compared to detect convergence, or 0
+    // to always run MaxTicks ticks
+    private int convergenceWindow;
+    // largest difference between windows once converged, relative to the
+    // mean
+    private double convergenceTolerance;
+    // whether to write a summary of the stationary window once converged
+    private boolean convergenceSummary;
+    // detects convergence of the gini index, or null
+    private ConvergenceDetector convergence;
+    // profiles each phase of every tick, or null when not profiling
+    private TickProfiler profiler;
+    // whether setup diffuses grain from every patch at once, as NetLogo
+    // does, rather than patch by patch in place
+    protected boolean simultaneousDiffusion;
+    // gini index of every tick so far, kept only when checkpointing
+    private SeedAggregator.Trajectory history;
+    // number of ticks between snapshots of the wealth distribution, or 0
+    // for none
+    private int snapshotInterval;
+    // number of points of the Lorenz curve in each snapshot
+    private int lorenzPoints;
+    // number of histogram bins each doubling of wealth is split into
+    private int histogramBinsPerDoubling;
+    // writes snapshots of the wealth distribution, or null
+    private DistributionSnapshots snapshots;
+    // png or window to draw the world every visualiserInterval ticks, or
+    // null to not draw it
+    private String visualiserMode;
+    private int visualiserInterval;
+    // width and height of each patch drawn, in pixels
+    private int visualiserScale;
+    // draws the world, or null
+    private Visualiser visualiser;
+    // whether the random number generators were restored from the
+    // checkpoint, rather than created afresh for a new seed
+    private boolean restoredRandom;
+
+    // properties file used to load run parameters
+    private String propertiesFile = DEFAULT_PROPERTIES_FILE;
+    // properties given on the command line, overriding the properties file
+    private final Properties overrides = new Properties();
+
+    // run parameters
+    // current tick of the world
+    protected int tick;
+    // number of patches in x direction
+    protected int xPatches;
+    // number of patches in y direction
+    protected int yPatches;
+    // number of people (turtles) to seed in the world
+    protected int numPeople;
+    // maximum value of metabolism for turtles
+    protected int metabolismMax;
+    // maximum number of patches ahead a turtle can see
+    protected int maxVision;
+    // minimum turtle life expectancy
+    protected int lifeExpectancyMin;
+    // maximum turtle life expectancy
+    protected int lifeExpectancyMax;
+    // percentage of land that has maximum grain capacity
+    protected int percentBestLand;
+    // quantity of grain that grows each grain interval
+    protected int numGrainGrown;
+    // interval of grain growth
+    protected int grainGrowthInterval;
+    // random seed value
+    protected int randomSeed = 0;
+
+    // random number generator, shared by the world and, in legacy mode, all
+    // turtles
+    protected Random random;
+    // whether each turtle draws from its own random number stream, rather
+    // than all drawing in turn from the shared generator
+    protected boolean splitStreams;
+    // runs the independent steps of each phase of a tick
+    protected TickExecutor executor;
+
+    /**
+     * Create the engine named by the Engine property, taken from the
+     * overrides if given there, otherwise from the properties file.
+     *
+     * @param propertiesFile to read properties from
+     * @param overrides      properties overriding the properties file
+     * @return engine ready to be set up
+     * @throws IOException when reading properties file
+     */
+    public static Simulation create(String propertiesFile,
+                                    Properties overrides) throws IOException {
+        if (propertiesFile.endsWith(CHECKPOINT_EXTENSION)) {
+            return fromCheckpoint(Paths.get(propertiesFile), overrides);
+        }
+        Properties properties = loadProperties(propertiesFile, overrides);
+        Simulation simulation = newEngine(properties.getProperty("Engine",
+                DEFAULT_ENGINE));
+        simulation.setPropertiesFile(propertiesFile);
+        simulation.setOverrides(overrides);
+        return simulation;
+    }
+
+    /**
+     * Create the engine a checkpoint was written by, which setup() will
+     * restore from the checkpoint rather than set up afresh.  The run keeps
+     * the checkpoint's properties, seed and inheritance flag unless they
+     * are overridden or changed before setup.  Changing the seed forks the
+     * run: turtles then draw from new random number generators for the new
+     * seed, rather than continuing those saved in the checkpoint.
+     *
+     * @param checkpoint checkpoint file written by saveCheckpoint
+     * @param overrides  properties overriding those of the checkpoint
+     * @return engine ready to be set up
+     * @throws IOException when reading the checkpoint fails
+     */
+    public static Simulation fromCheckpoint(Path checkpoint,
+                                            Properties overrides)
+            throws IOException {
+        ByteBuffer in = mapCheckpoint(checkpoint);
+        String engine = CheckpointOutput.getString(in);
+        String propertiesFile = CheckpointOutput.getString(in);
+        Properties properties = new Properties();
+        properties.load(new StringReader(CheckpointOutput.getString(in)));
+        properties.putAll(overrides);
+
+        Simulation simulation = newEngine(engine);
+        simulation.setPropertiesFile(propertiesFile);
+        simulation.setOverrides(properties);
+        simulation.setRandomSeed(in.getInt());
+        simulation.setInheritance(in.get() != 0);
+        simulation.checkpoint = checkpoint;
+        return simulation;
+    }
+
+    /**
+     * @param engine name of an engine
+     * @return new instance of the engine
+     */
+    private static Simulation newEngine(String engine) {
+        if (engine.equals("object")) {
+            return new World();
+        } else if (engine.equals("array")) {
+            return new ArrayWorld();
+        } else if (engine.equals("tiled")) {
+            return new TiledWorld();
+        } else if (engine.equals("offheap")) {
+            return new OffHeapWorld();
+        }
+        throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+
+    /**
+     * Map a checkpoint file and check its header
+     *
+     * @return buffer positioned after the magic number and version
+     */
+    private static ByteBuffer mapCheckpoint(Path checkpoint)
+            throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(checkpoint,
+                StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        if (in.remaining() < Integer.BYTES + Short.BYTES ||
+                in.getInt() != CHECKPOINT_MAGIC ||
+                in.getShort() != CHECKPOINT_VERSION) {
+            throw new IOException("Not a checkpoint: " + checkpoint);
+        }
+        return in;
+    }
+
+    /**
+     * Read a properties file, then apply any overrides on top of it
+     *
+     * @param propertiesFile to read properties from
+     * @param overrides      properties replacing those in the file
+     * @return merged properties
+     * @throws IOException when reading properties file
+     */
+    public static Properties loadProperties(String propertiesFile,
+                                            Properties overrides)
+            throws IOException {
+        Properties properties = new Properties();
+        // load properties file
+        try (FileReader inStream = new FileReader(propertiesFile)) {
+            properties.load(inStream);
+        }
+        properties.putAll(overrides);
+        return properties;
+    }
+
+    /**
+     * Parse "Key=Value" command-line arguments into properties
+     *
+     * @param args  command-line arguments
+     * @param start index of the first override argument
+     * @return properties given on the command line
+     */
+    public static Properties parseOverrides(String[] args, int start) {
+        Properties overrides = new Properties();
+        for (int i = start; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split <= 0) {
+                throw new IllegalArgumentException("Expected Key=Value, got "
+                        + args[i]);
+            }
+            overrides.setProperty(args[i].substring(0, split),
+                    args[i].substring(split + 1));
+        }
+        return overrides;
+    }
+
+    /**
+     * Read simulation properties from a properties file
+     *
+     * @param propertiesFile to read properties from
+     * @throws IOException when reading properties file
+     */
+    private void setupProperties(String propertiesFile) throws IOException {
+        Properties worldProperties;
+        if (checkpoint != null) {
+            // a checkpoint's overrides hold all of its properties
+            worldProperties = new Properties();
+            worldProperties.putAll(overrides);
+        } else {
+            worldProperties = loadProperties(propertiesFile, overrides);
+        }
+
+        // parse properties from properties file
+        maxTicks = Integer.parseInt(worldProperties.getProperty("MaxTicks"));
+        xPatches = Integer.parseInt(worldProperties.getProperty("XPatches"));
+        yPatches = Integer.parseInt(worldProperties.getProperty("YPatches"));
+        numPeople = Integer.parseInt(worldProperties.getProperty("NumPeople"));
+        maxVision = Integer.parseInt(worldProperties.getProperty("MaxVision"));
+        metabolismMax = Integer.parseInt(worldProperties.getProperty(
+                "MetabolismMax"));
+        lifeExpectancyMin = Integer.parseInt(worldProperties.getProperty(
+                "LifeExpectancyMin"));
+        lifeExpectancyMax = Integer.parseInt(worldProperties.getProperty(
+                "LifeExpectancyMax"));
+        percentBestLand = Integer.parseInt(worldProperties.getProperty(
+                "PercentBestLand"));
+        numGrainGrown = Integer.parseInt(worldProperties.getProperty(
+                "NumGrainGrown"));
+        grainGrowthInterval = Integer.parseInt(worldProperties.getProperty(
+                "GrainGrowthInterval"));
+        // optional: how to compute the gini coefficient, exact (default) or
+        // closed-form
+        String giniMethod = worldProperties.getProperty("Gini", "exact");
+        if (!giniMethod.equals("exact") && !giniMethod.equals("closed-form")) {
+            throw new IllegalArgumentException("Unknown Gini method: " +
+                    giniMethod);
+        }
+        giniClosedForm = giniMethod.equals("closed-form");
+        // optional: number of ticks between writes of output files
+        flushInterval = Integer.parseInt(worldProperties.getProperty(
+                "FlushInterval", "100"));
+        // optional: comma separated output formats, csv (default), binary
+        // or none
+        outputFormats = Arrays.asList(worldProperties.getProperty("Output",
+                "csv").split(","));
+        for (String format : outputFormats) {
+            if (!format.equals("csv") && !format.equals("binary") &&
+                    !format.equals("none")) {
+                throw new IllegalArgumentException("Unknown output: " +
+                        format);
+            }
+        }
+        // optional: none (default) or delta encoding of binary output
+        String compression = worldProperties.getProperty("Compression",
+                "none");
+        if (!compression.equals("none") && !compression.equals("delta")) {
+            throw new IllegalArgumentException("Unknown compression: " +
+                    compression);
+        }
+        deltaEncoded = compression.equals("delta");
+        // optional: commit the run was built from, for binary output
+        commit = worldProperties.getProperty("Commit", "");
+        // optional: tick to write a checkpoint at, and the file to write
+        checkpointAt = Integer.parseInt(worldProperties.getProperty(
+                "CheckpointAt", "-1"));
+        checkpointFile = worldProperties.getProperty("CheckpointFile");
+        // optional: sequential (default) or simultaneous diffusion of grain
+        // at setup
+        String diffusion = worldProperties.getProperty("DiffusionMode",
+                "sequential");
+        if (!diffusion.equals("sequential") &&
+                !diffusion.equals("simultaneous")) {
+            throw new IllegalArgumentException("Unknown diffusion mode: " +
+                    diffusion);
+        }
+        simultaneousDiffusion = diffusion.equals("simultaneous");
+        // optional: whether to profile each phase of every tick
+        if (Boolean.parseBoolean(worldProperties.getProperty("Profile",
+                "false"))) {
+            profiler = new TickProfiler(this);
+        }
+        // optional: directory to cache initial patch grain in
+        String patchCacheDirectory = worldProperties.getProperty(
+                "PatchCache");
+        patchCache = patchCacheDirectory == null ? null :
+                new PatchCache(Paths.get(patchCacheDirectory));
+        // optional: stop once the gini index has converged, over windows of
+        // ticks, within a tolerance, and write a summary of it
+        convergenceWindow = Integer.parseInt(worldProperties.getProperty(
+                "ConvergenceWindow", "0"));
+        convergenceTolerance = Double.parseDouble(worldProperties.getProperty(
+                "ConvergenceTolerance", "0.01"));
+        convergenceSummary = Boolean.parseBoolean(worldProperties.getProperty(
+                "ConvergenceSummary", "false"));
+        // optional: snapshot the Lorenz curve and a log-binned histogram of
+        // wealth every n ticks, at a resolution
+        snapshotInterval = Integer.parseInt(worldProperties.getProperty(
+                "SnapshotInterval", "0"));
+        lorenzPoints = Integer.parseInt(worldProperties.getProperty(
+                "LorenzPoints", "100"));
+        histogramBinsPerDoubling = Integer.parseInt(worldProperties
+                .getProperty("HistogramBinsPerDoubling", "1"));
+        // optional: draw the world every n ticks, as PNG files or in a window
+        visualiserMode = worldProperties.getProperty("Visualiser");
+        visualiserInterval = Integer.parseInt(worldProperties.getProperty(
+                "VisualiserInterval", "10"));
+        visualiserScale = Integer.parseInt(worldProperties.getProperty(
+                "VisualiserScale", "4"));
+        // optional: name of output files, before the seed, defaulting to the
+        // properties file's name
+        runName = worldProperties.getProperty("RunName",
+                new File(propertiesFile).getName().split("\\.")[0]);
+        runProperties = worldProperties;
+        // optional: number of threads to run each tick on
+        int threads = Integer.parseInt(worldProperties.getProperty("Threads",
+                "1"));
+
+        // optional: legacy (default) for one random number generator shared
+        // in turn by every turtle, or split for a stream per turtle
+        String streams = worldProperties.getProperty("RandomStreams",
+                "legacy");
+        if (!streams.equals("legacy") && !streams.equals("split")) {
+            throw new IllegalArgumentException("Unknown random streams: " +
+                    streams);
+        }
+        splitStreams = streams.equals("split");
+
+        // initialise random number generator
+        if (splitStreams) {
+            random = new StreamRandom(randomSeed, StreamRandom.WORLD_STREAM);
+        } else {
+            random = new Random(randomSeed);
+        }
+
+        setupEngineProperties(worldProperties);
+
+        // start the pool last, once every property is known to be valid, so
+        // that a bad property leaves no threads running
+        executor = new TickExecutor(threads);
+    }
+
+    /**
+     * Read properties specific to an engine, once the run parameters have
+     * been read.  Engines without their own properties ignore them.
+     *
+     * @param properties merged properties of the run
+     */
+    protected void setupEngineProperties(Properties properties) {
+    }
+
+    /**
+     * @return csv file name for simulation timeseries
+     */
+    public String getCsvFileName() {
+        String csvFilename = getOutputBasename() + ".csv";
+        System.out.println("Output csv: " + csvFilename);
+        return csvFilename;
+    }
+
+    /**
+     * @return binary file name for simulation timeseries
+     */
+    public String getBinaryFileName() {
+        String binaryFilename = getOutputBasename() + ".bin";
+        System.out.println("Output binary: " + binaryFilename);
+        return binaryFilename;
+    }
+
+    /**
+     * @return name of output files without their extension
+     */
+    private String getOutputBasename() {
+        String basename = runName;
+        basename += "-seed-" + randomSeed;
+        if (inheritance) {
+            basename += "-inheritance";
+        }
+        return basename;
+    }
+
+    /**
+     * Setup world for wealth distribution sim
+     *
+     * @throws IOException when reading properties file
+     */
+    public void setup() throws IOException {
+        if (checkpoint != null) {
+            System.out.println("Restoring checkpoint " + checkpoint);
+        } else {
+            System.out.println("Reading properties file " + propertiesFile);
+        }
+        setupProperties(propertiesFile);
+        try {
+            setupWorld();
+        } catch (IOException | RuntimeException e) {
+            // stop the pool and close any output opened before the failure
+            try {
+                closeOutput();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Open the output, then set up the world afresh or restore it from the
+     * checkpoint
+     *
+     * @throws IOException when opening output or reading the checkpoint fails
+     */
+    private void setupWorld() throws IOException {
+        if (writeOutput) {
+            openOutput();
+        }
+        if (visualiserMode != null) {
+            visualiser = new Visualiser(visualiserMode, visualiserInterval,
+                    visualiserScale, xPatches, yPatches, MAX_GRAIN,
+                    getOutputBasename());
+        }
+        if (checkpointAt >= 0) {
+            // a checkpoint holds the statistics of every tick before it, so
+            // they are kept only when the run will checkpoint, and memory
+            // otherwise does not grow with MaxTicks
+            history = new SeedAggregator.Trajectory();
+            addSink(history);
+        }
+        if (convergenceWindow > 0) {
+            convergence = new ConvergenceDetector(convergenceWindow,
+                    convergenceTolerance);
+            addSink(convergence);
+        }
+        if (checkpoint != null) {
+            restore();
+            return;
+        }
+        // set up patches
+        setupPatches();
+        // set up turtles
+        setupTurtles();
+        // initialise gini
+        updateGini();
+    }
+
+    /**
+     * Run the simulation for the configured number of ticks, then close
+     * the sinks, keeping what they have received even if a tick fails
+     *
+     * @throws Exception when a tick fails
+     */
+    public void run() throws Exception {
+        try {
+            while (isRunning()) {
+                go();
+                checkpointIfDue();
+            }
+            finish();
+        } finally {
+            closeOutput();
+        }
+    }
+
+    /**
+     * @return whether the run has ticks left to run
+     */
+    boolean isRunning() {
+        return tick < maxTicks && !isConverged();
+    }
+
+    /**
+     * Write a checkpoint if the current tick is CheckpointAt
+     *
+     * @throws IOException when writing the checkpoint fails
+     */
+    void checkpointIfDue() throws IOException {
+        if (tick == checkpointAt) {
+            saveCheckpoint(Paths.get(checkpointFile != null ?
+                    checkpointFile : getOutputBasename() + "-tick-" +
+                    tick + CHECKPOINT_EXTENSION));
+        }
+    }
+
+    /**
+     * Report how the run ended, and write the summaries of a finished run
+     *
+     * @throws IOException when writing a summary fails
+     */
+    void finish() throws IOException {
+        if (isConverged()) {
+            System.out.println("Converged at tick " +
+                    convergence.getConvergedTick() + ": " +
+                    getOutputBasename());
+        }
+        if (convergence != null && convergenceSummary && writeOutput) {
+            String summary = getOutputBasename() + "-convergence.csv";
+            System.out.println("Output convergence: " + summary);
+            convergence.writeSummary(Paths.get(summary), maxTicks);
+        }
+        if (profiler != null) {
+            profiler.printSummary(System.out, getOutputBasename());
+        }
+    }
+
+    /**
+     * Stop the run's threads and close the sinks, keeping what they have
+     * received even if a tick failed
+     *
+     * @throws IOException when finishing an output file fails
+     */
+    void closeOutput() throws IOException {
+        executor.shutdown();
+        for (StatisticsSink sink : sinks) {
+            sink.close();
+        }
+        if (snapshots != null) {
+            snapshots.close();
+        }
+        if (visualiser != null) {
+            visualiser.close();
+        }
+    }
+
+    /**
+     * @return whether the run has stopped early as its gini index converged
+     */
+    public boolean isConverged() {
+        return convergence != null && convergence.isConverged();
+    }
+
+    /**
+     * @return whether each tick is run by a profiler, rather than go
+     */
+    boolean isProfiling() {
+        return profiler != null;
+    }
+
+    /**
+     * Write the state of the world to a checkpoint, from which the run can
+     * be restored exactly: its properties, tick, random number generators,
+     * patches and turtles, and the statistics of every tick so far.
+     * Memory-maps the file at its exact size, found by writing the checkpoint
+     * once without a buffer.
+     * The statistics are only kept when CheckpointAt is set; to checkpoint
+     * at other ticks as well, set CheckpointAt, beyond MaxTicks if the run
+     * should not checkpoint itself.
+     *
+     * @param file checkpoint file to write
+     * @throws IOException           when writing fails
+     * @throws IllegalStateException when CheckpointAt was not set, so the
+     *                               statistics of earlier ticks were not kept
+     */
+    public void saveCheckpoint(Path file) throws IOException {
+        if (history == null) {
+            throw new IllegalStateException("Checkpoints need CheckpointAt " +
+                    "set before setup, to keep the statistics of every tick");
+        }
+        System.out.println("Checkpoint: " + file);
+        CheckpointOutput size = new CheckpointOutput(null);
+        writeCheckpoint(size);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, size.size());
+            writeCheckpoint(new CheckpointOutput(buffer));
+            buffer.force();
+        }
+    }
+
+    /**
+     * Write the header and state of a checkpoint
+     */
+    private void writeCheckpoint(CheckpointOutput out) throws IOException {
+        out.putInt(CHECKPOINT_MAGIC);
+        out.putShort(CHECKPOINT_VERSION);
+        out.putString(runProperties.getProperty("Engine", DEFAULT_ENGINE));
+        out.putString(propertiesFile);
+        StringWriter properties = new StringWriter();
+        runProperties.store(properties, null);
+        out.putString(properties.toString());
+        out.putInt(randomSeed);
+        out.putByte(inheritance ? 1 : 0);
+
+        out.putInt(tick);
+        writeRandom(out, random);
+        float[] gini = history.toArray();
+        out.putInt(gini.length);
+        for (float g : gini) {
+            out.putFloat(g);
+        }
+        writeState(out);
+    }
+
+    /**
+     * Restore the world from the checkpoint, once the properties have been
+     * read, then pass the statistics of the ticks before it to the sinks
+     */
+    private void restore() throws IOException {
+        ByteBuffer in = mapCheckpoint(checkpoint);
+        // engine and properties were read by fromCheckpoint
+        CheckpointOutput.getString(in);
+        CheckpointOutput.getString(in);
+        CheckpointOutput.getString(in);
+        int savedSeed = in.getInt();
+        in.get();
+
+        tick = in.getInt();
+        Random savedRandom = readRandom(in);
+        restoredRandom = savedSeed == randomSeed;
+        if (restoredRandom) {
+            random = savedRandom;
+        }
+        float[] gini = new float[in.getInt()];
+        for (int t = 0; t < gini.length; t++) {
+            gini[t] = in.getFloat();
+        }
+        readState(in);
+
+        for (int t = 0; t < gini.length; t++) {
+            for (StatisticsSink sink : sinks) {
+                sink.record(t, gini[t]);
+            }
+        }
+    }
+
+    /**
+     * Write the patches and turtles of the world to a checkpoint
+     *
+     * @param out checkpoint being written
+     */
+    protected abstract void writeState(CheckpointOutput out);
+
+    /**
+     * Restore the patches and turtles of the world from a checkpoint, once
+     * the run parameters have been read, in place of setupPatches and
+     * setupTurtles
+     *
+     * @param in checkpoint, positioned where writeState started writing
+     */
+    protected abstract void readState(ByteBuffer in);
+
+    /**
+     * Write a turtle's random number generator to a checkpoint
+     *
+     * @param out          checkpoint being written
+     * @param turtleRandom the turtle's generator
+     */
+    protected void writeTurtleRandom(CheckpointOutput out,
+                                     Random turtleRandom) {
+        if (turtleRandom == random) {
+            out.putByte(RANDOM_SHARED);
+        } else {
+            writeRandom(out, turtleRandom);
+        }
+    }
+
+    /**
+     * Read a turtle's random number generator from a checkpoint, or if the
+     * run has been forked with a new seed, create its generator afresh
+     *
+     * @param in checkpoint being read
+     * @param id turtle id
+     * @return the turtle's generator
+     */
+    protected Random readTurtleRandom(ByteBuffer in, int id) {
+        Random saved = readRandom(in);
+        if (!restoredRandom) {
+            return getTurtleRandom(id);
+        }
+        return saved == null ? random : saved;
+    }
+
+    /**
+     * Write a random number generator: a stream's position, or otherwise
+     * the generator serialized, which holds its seed
+     */
+    static void writeRandom(CheckpointOutput out, Random r) {
+        if (r instanceof StreamRandom) {
+            out.putByte(RANDOM_STREAM);
+            out.putLong(((StreamRandom) r).getState());
+            return;
+        }
+        out.putByte(RANDOM_SERIALIZED);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+            objects.writeObject(r);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        out.putBytes(bytes.toByteArray());
+    }
+
+    /**
+     * Read a random number generator written by writeRandom
+     *
+     * @return the generator, or null for the world's shared generator
+     */
+    static Random readRandom(ByteBuffer in) {
+        int kind = in.get();
+        if (kind == RANDOM_SHARED) {
+            return null;
+        }
+        if (kind == RANDOM_STREAM) {
+            StreamRandom stream = new StreamRandom(0, 0);
+            stream.setState(in.getLong());
+            return stream;
+        }
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        try (ObjectInputStream objects = new ObjectInputStream(
+                new ByteArrayInputStream(bytes))) {
+            return (Random) objects.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unreadable random state", e);
+        }
+    }
+
+    /**
+     * Send the statistics of every tick to a sink, from tick 0 once set up.
+     * Sinks are closed when the run ends.
+     *
+     * @param sink to receive statistics
+     */
+    public void addSink(StatisticsSink sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * Open a sink for each output format
+     *
+     * @throws IOException when opening an output file fails
+     */
+    private void openOutput() throws IOException {
+        if (outputFormats.contains("csv")) {
+            addSink(new CsvSink(Paths.get(getCsvFileName()), flushInterval));
+        }
+        if (outputFormats.contains("binary")) {
+            addSink(new BinarySink(Paths.get(getBinaryFileName()),
+                    runProperties, randomSeed, inheritance, commit,
+                    deltaEncoded, flushInterval));
+        }
+        if (snapshotInterval > 0 && (outputFormats.contains("csv") ||
+                outputFormats.contains("binary"))) {
+            snapshots = new DistributionSnapshots(snapshotInterval,
+                    lorenzPoints, histogramBinsPerDoubling);
+            if (outputFormats.contains("csv")) {
+                snapshots.openCsv(getOutputBasename());
+            }
+            if (outputFormats.contains("binary")) {
+                snapshots.openBinary(getOutputBasename());
+            }
+        }
+    }
+
+    /**
+     * Create the patches of the world and initialise them with grain, once
+     * the run parameters have been read
+     */
+    protected abstract void setupPatches();
+
+    /**
+     * Create the turtles of the world, once the patches have been set up
+     */
+    protected abstract void setupTurtles();
+
+    /**
+     * Run one step of the simulation
+     */
+    protected void go() throws Exception {
+        if (profiler != null) {
+            profiler.tick();
+        } else {
+            go(Phase::run);
+        }
+    }
+
+    /**
+     * Run one step of the simulation, handing each phase due this tick to
+     * a runner, such as a profiler timing it
+     *
+     * @param runner runs each phase
+     */
+    void go(PhaseRunner runner) {
+        tick++;
+        for (Phase phase : Phase.ALL) {
+            if (phase.isDue(this)) {
+                runner.run(phase, this);
+            }
+        }
+    }
+
+    /**
+     * The phases of a tick, in the order go runs them.  Profiling,
+     * benchmarks and ensembles run ticks from this list too.
+     */
+    enum Phase {
+        // make turtles turn towards grain
+        TURN_TOWARDS_GRAIN("turnTowardsGrain", Simulation::turnTowardsGrain),
+        // harvest grain
+        HARVEST("harvest", Simulation::harvest),
+        // run each turtle
+        MOVE_EAT_AGE_DIE("moveEatAgeDie", Simulation::moveEatAgeDie),
+        // grow grain on patches, every grainGrowthInterval ticks
+        GROW_GRAIN("growGrain", Simulation::growGrain),
+        // sum the grain left after harvest and growth, for next tick
+        UPDATE_PERCEPTION("updatePerception", Simulation::updatePerception),
+        // update statistics for each run
+        UPDATE_GINI("updateGini", Simulation::updateGini);
+
+        // every phase, without copying values() each tick
+        static final Phase[] ALL = values();
+
+        // name of the phase, as the method running it is named
+        private final String label;
+        // runs the phase on a simulation
+        private final Consumer<Simulation> body;
+
+        Phase(String label, Consumer<Simulation> body) {
+            this.label = label;
+            this.body = body;
+        }
+
+        /**
+         * @return name of the phase, as the method running it is named
+         */
+        String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return whether the phase runs at a simulation's current tick
+         */
+        boolean isDue(Simulation simulation) {
+            return this != GROW_GRAIN ||
+                    simulation.tick % simulation.grainGrowthInterval == 0;
+        }
+
+        /**
+         * Run the phase on a simulation
+         *
+         * @param simulation simulation to run the phase of
+         */
+        void run(Simulation simulation) {
+            body.accept(simulation);
+        }
+    }
+
+    /**
+     * Runs one phase of a tick on a simulation
+     */
+    interface PhaseRunner {
+        void run(Phase phase, Simulation simulation);
+    }
+
+    /**
+     * Turn every turtle towards the heading with the most grain it can see
+     */
+    protected abstract void turnTowardsGrain();
+
+    /**
+     * Share the grain on every patch between the turtles on it
+     */
+    protected abstract void harvest();
+
+    /**
+     * Move every turtle one patch ahead, then have it eat, age, and be
+     * reborn if it has died
+     */
+    protected abstract void moveEatAgeDie();
+
+    /**
+     * Grow grain on every patch, up to its maximum
+     */
+    protected abstract void growGrain();
+
+    /**
+     * Update the grain sums turtles use to look for grain
+     */
+    protected abstract void updatePerception();
+
+    /**
+     * @return histogram of the current wealth of each turtle
+     */
+    protected abstract WealthHistogram getWealthHistogram();
+
+    /**
+     * Copy the grain and number of turtles on each patch, for a frame of a
+     * {@link Visualiser}.  Runs between ticks, on the simulation's thread.
+     *
+     * @param grain   filled with the grain on each patch, indexed by
+     *                x * yPatches + y
+     * @param turtles filled with the number of turtles on each patch,
+     *                indexed likewise
+     */
+    protected abstract void copyFrame(double[] grain, int[] turtles);
+
+    /**
+     * Update the Gini coefficient from the histogram of turtles' wealth,
+     * which gives the same result as computeGini(computeLorenz(wealth))
+     * without sorting every turtle's wealth, and send it to the sinks
+     */
+    protected void updateGini() {
+        WealthHistogram wealth = getWealthHistogram();
+        float currentGini;
+        if (giniClosedForm) {
+            currentGini = wealth.computeGiniClosedForm();
+        } else {
+            currentGini = wealth.computeGini();
+        }
+        if (PRINT_GINI) {
+            System.out.println("Tick: " + tick + ", Gini index: " + currentGini);
+        }
+        try {
+            for (StatisticsSink sink : sinks) {
+                sink.record(tick, currentGini);
+            }
+            if (snapshots != null) {
+                snapshots.record(tick, wealth);
+            }
+            if (visualiser != null) {
+                visualiser.publish(this, tick);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compute the Lorenz curve of a set of wealth values.
+     * Reference implementation of the statistics kept by WealthHistogram.
+     *
+     * @param wealth wealth of each turtle, sorted in place
+     * @return cumulative share of total wealth held by the poorest turtles
+     */
+    protected List<Float> computeLorenz(List<Integer> wealth) {
+        // sort wealth ascending
+        Collections.sort(wealth);
+
+        // calculate total wealth
+        double totalWealth = wealth.stream()
+                .mapToDouble(w -> w)
+                .sum();
+        List<Float> lor = new ArrayList<>();
+
+        // compute Lorenz points
+        int cumulativeWealth = 0;
+        for (int w : wealth) {
+            cumulativeWealth += w;
+            float lorenzPoint = cumulativeWealth / (float) totalWealth;
+            lor.add(lorenzPoint);
+        }
+        return lor;
+    }
+
+    /**
+     * Compute the Gini index from a set of Lorenz points
+     *
+     * @param lorenz list of values comprising the lorenz curve
+     * @return Gini index corresponding to lorenz curve
+     */
+    protected float computeGini(List<Float> lorenz) {
+        float giniIndex = 0;
+        float numLorenz = (float) lorenz.size();
+        for (int i = 0; i < lorenz.size(); i++) {
+            giniIndex += (i + 1) / numLorenz - lorenz.get(i);
+        }
+        return giniIndex;
+    }
+
+    /**
+     * Seed patches with grain and diffuse it, on a flat array of patches
+     * indexed by x * yPatches + y, or read it from the patch cache
+     *
+     * @return initial grain of each patch, which is also its maximum grain
+     */
+    protected double[] setupInitialGrain() {
+        double[] cached = loadCachedGrain();
+        if (cached != null) {
+            return cached;
+        }
+
+        int numPatches = xPatches * yPatches;
+        double[] grainHere = new double[numPatches];
+
+        // initialise patches, remembering those with max grain
+        int[] maxGrainPatches = new int[numPatches];
+        int numMaxGrainPatches = 0;
+        for (int i = 0; i < numPatches; i++) {
+            int patchGrain = determinePatchGrain();
+            grainHere[i] = patchGrain;
+            if (patchGrain != 0) {
+                maxGrainPatches[numMaxGrainPatches++] = i;
+            }
+        }
+
+        DiffusionKernel kernel = new DiffusionKernel(xPatches, yPatches,
+                this::wrap, executor);
+        if (simultaneousDiffusion) {
+            // as NetLogo: reset best land, then diffuse across all patches
+            // at once, 5 times
+            for (int i = 0; i < 5; i++) {
+                for (int j = 0; j < numMaxGrainPatches; j++) {
+                    grainHere[maxGrainPatches[j]] = MAX_GRAIN;
+                }
+                grainHere = kernel.diffuseSimultaneous(grainHere,
+                        GRAIN_DIFFUSION_PROPORTION);
+            }
+            // diffuse 10 times across all patches
+            for (int i = 0; i < 10; i++) {
+                grainHere = kernel.diffuseSimultaneous(grainHere,
+                        GRAIN_DIFFUSION_PROPORTION);
+            }
+        } else {
+            // spread grain around.  put some back into best land (diffuse)
+            // diffuse 5 times
+            for (int i = 0; i < 5; i++) {
+                for (int j = 0; j < numMaxGrainPatches; j++) {
+                    int p = maxGrainPatches[j];
+                    // reset to initial grain value
+                    grainHere[p] = MAX_GRAIN;
+                    kernel.diffuseFrom(grainHere, p,
+                            GRAIN_DIFFUSION_PROPORTION);
+                }
+            }
+            // diffuse 10 times across all patches
+            for (int i = 0; i < 10; i++) {
+                kernel.diffuseSequential(grainHere,
+                        GRAIN_DIFFUSION_PROPORTION);
+            }
+        }
+
+        // round down to whole grain
+        for (int p = 0; p < numPatches; p++) {
+            grainHere[p] = Math.floor(grainHere[p]);
+        }
+        storeCachedGrain(grainHere);
+        return grainHere;
+    }
+
+    /**
+     * Look up the initial grain of this run's patches in the patch cache,
+     * and if it is there, continue the world's random number generator from
+     * where setting up the patches left it
+     *
+     * @return initial grain of each patch, indexed by x * yPatches + y, or
+     * null if it is not cached
+     */
+    protected double[] loadCachedGrain() {
+        if (patchCache == null) {
+            return null;
+        }
+        try {
+            PatchCache.Entry entry = patchCache.load(randomSeed, xPatches,
+                    yPatches, percentBestLand, splitStreams,
+                    simultaneousDiffusion);
+            if (entry == null) {
+                return null;
+            }
+            random = entry.random;
+            return entry.grain;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return whether the run keeps the initial grain of its patches in a
+     * patch cache
+     */
+    protected boolean isCachingPatches() {
+        return patchCache != null;
+    }
+
+    /**
+     * Store the initial grain of this run's patches in the patch cache, if
+     * there is one, once the patches have been set up
+     *
+     * @param grainHere initial grain of each patch, indexed by
+     *                  x * yPatches + y
+     */
+    protected void storeCachedGrain(double[] grainHere) {
+        if (patchCache == null) {
+            return;
+        }
+        try {
+            patchCache.store(randomSeed, xPatches, yPatches, percentBestLand,
+                    splitStreams, simultaneousDiffusion, grainHere, random);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Determine how much grain each patch should be seeded with
+     */
+    protected int determinePatchGrain() {
+        int patchGrain = 0;
+        // check if this is best land
+        if (random.nextFloat() <= (percentBestLand / 100.0)) {
+            patchGrain = MAX_GRAIN;
+        }
+        return patchGrain;
+    }
+
+    /**
+     * wrap v between 0 and (bound-1)
+     *
+     * @param v     value to wrap
+     * @param bound maximum bound
+     * @return wrapped value
+     */
+    protected int wrap(int v, int bound) {
+        int max = bound - 1;
+        if (v > max) {
+            v = v % max - 1;
+        } else if (v < 0) {
+            v = bound + v;
+        }
+        return v;
+    }
+
+    /**
+     * @return properties file used to load run parameters
+     */
+    public String getPropertiesFile() {
+        return propertiesFile;
+    }
+
+    /**
+     * @return current tick of simulation
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    int getMaxTicks() {
+        return maxTicks;
+    }
+
+    public int getMaxVision() {
+        return maxVision;
+    }
+
+    public int getMetabolismMax() {
+        return metabolismMax;
+    }
+
+    public int getLifeExpectancyMin() {
+        return lifeExpectancyMin;
+    }
+
+    public int getLifeExpectancyMax() {
+        return lifeExpectancyMax;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * @param id turtle id
+     * @return random number generator for the turtle: its own stream, or
+     * the shared generator in legacy mode
+     */
+    public Random getTurtleRandom(int id) {
+        if (splitStreams) {
+            return new StreamRandom(randomSeed, id);
+        }
+        return random;
+    }
+
+    void setRandomSeed(int randomSeed) {
+        this.randomSeed = randomSeed;
+    }
+
+    void setPropertiesFile(String propertiesFile) {
+        this.propertiesFile = propertiesFile;
+    }
+
+    /**
+     * @param writeOutput whether to write the statistics of each tick to
+     *                    the output files selected by the Output property,
+     *                    as the run goes
+     */
+    void setWriteOutput(boolean writeOutput) {
+        this.writeOutput = writeOutput;
+    }
+
+    /**
+     * @return properties of the run, once set up
+     */
+    public Properties getRunProperties() {
+        return runProperties;
+    }
+
+    void setOverrides(Properties overrides) {
+        this.overrides.clear();
+        this.overrides.putAll(overrides);
+    }
+
+    public boolean getInheritance() {
+        return inheritance;
+    }
+
+    void setInheritance(boolean inheritance) {
+        this.inheritance = inheritance;
+    }
+
+    public int getMaxGrain() {
+        return MAX_GRAIN;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the statistics of a run one tick at a time, as the run goes,
+ * e.g. to write them to a file, so that a run holds no history of its own.
+ */
+public interface StatisticsSink extends Closeable {
+    /**
+     * Record the statistics of a tick.  Called once per tick, in order,
+     * starting from tick 0 once the world is set up.
+     *
+     * @param tick tick the statistics are for
+     * @param gini Gini index of the turtles' wealth at the end of the tick
+     * @throws IOException when writing the statistics fails
+     */
+    void record(int tick, float gini) throws IOException;
+
+    /**
+     * Finish recording once the run has ended, or failed.  Does nothing
+     * unless the sink holds resources.
+     *
+     * @throws IOException when writing the statistics fails
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
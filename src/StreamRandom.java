@@ -0,0 +1,90 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.util.Random;
+
+/**
+ * Deterministic random number stream derived from a run's seed and a stream
+ * id, so that each turtle can draw its own random numbers independently of
+ * every other turtle.  The numbers a turtle draws then depend only on the
+ * seed, its id and how many it has drawn, not on the order turtles are
+ * updated in or which thread updates them.
+ * Generates numbers with SplitMix64 (Steele, Lea & Flood, 2014), and extends
+ * Random so that streams can be used wherever the shared generator was.
+ * A stream's whole state is one long, so engines holding turtles in arrays
+ * keep each turtle's state in a long[] and draw through one StreamRandom per
+ * thread, positioned at the turtle's state, rather than an object per
+ * turtle.
+ * Not thread safe: each stream belongs to one turtle.
+ */
+public class StreamRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    // stream id of the world's own stream, used during setup
+    public static final long WORLD_STREAM = -1;
+    // SplitMix64 increment, the golden ratio as a 64 bit fraction
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // position in the stream
+    private long state;
+
+    /**
+     * @param seed     random seed of the run
+     * @param streamId id of the stream, e.g. a turtle's id
+     */
+    public StreamRandom(long seed, long streamId) {
+        super(0);
+        state = initialState(seed, streamId);
+    }
+
+    /**
+     * @param seed     random seed of the run
+     * @param streamId id of the stream, e.g. a turtle's id
+     * @return position at the start of the stream, as getState would return
+     */
+    public static long initialState(long seed, long streamId) {
+        return mix64(mix64(seed) + GOLDEN_GAMMA * (streamId + 1));
+    }
+
+    /**
+     * @return next bits of the stream, from which Random derives nextInt,
+     * nextFloat and the rest
+     */
+    @Override
+    protected int next(int bits) {
+        state += GOLDEN_GAMMA;
+        return (int) (mix64(state) >>> (64 - bits));
+    }
+
+    /**
+     * Streams are only seeded by their constructor; ignores Random's
+     * seeding during construction
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+    }
+
+    /**
+     * @return position in the stream, to save in a checkpoint
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * @param state position in the stream, as saved by getState
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * SplitMix64 finaliser, scrambling the bits of z
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * A parameter sweep, in the spirit of NetLogo's BehaviorSpace: a base
+ * properties file, and values for any of its properties, run as every
+ * combination of those values (their Cartesian product), each with a range
+ * of seeds and inheritance flags.  Specified as a properties file:
+ * - Base: properties file every run starts from (default: the default
+ * properties file)
+ * - Seeds: range of seeds, from:to inclusive (default: 0:0)
+ * - Inheritance: comma separated inheritance flags (default: false)
+ * - Name: name of the sweep's output files (default: the sweep file's name)
+ * - any other Key=values: a comma separated list of values, or an inclusive
+ * range from:to or from:to:step of whole numbers.  Properties that must
+ * change together are joined by +, with their values joined by /, e.g.
+ * LifeExpectancyMin+LifeExpectancyMax=1/83,50/100
+ * Each combination is an experiment named {Name}-{index}, whose values are
+ * listed in {Name}-experiments.csv.
+ * Entrypoint for running a sweep.
+ */
+public class Sweep {
+    // keys of the specification that are not swept properties
+    private static final List<String> RESERVED = Arrays.asList("Base",
+            "Seeds", "Inheritance", "Name");
+
+    // properties file every run starts from
+    private final String base;
+    // first and last seed, inclusive
+    private final int firstSeed;
+    private final int lastSeed;
+    // inheritance flags of each experiment
+    private final List<Boolean> inheritanceFlags = new ArrayList<>();
+    // name of the sweep's output files
+    private final String name;
+    // properties swept by each dimension, in key order
+    private final List<String[]> keys = new ArrayList<>();
+    // values of each dimension, each value holding one value per key
+    private final List<List<String[]>> values = new ArrayList<>();
+
+    /**
+     * Usage: Sweep {sweep file} [Key=Value...]
+     * - Key=Value pairs override every experiment's properties, and
+     * configure BatchRunner, e.g. Workers=n, Aggregate=true, Telemetry=port
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: Sweep {sweep file} [Key=Value...]");
+            System.exit(1);
+        }
+        Sweep sweep = new Sweep(args[0]);
+        Properties overrides = Simulation.parseOverrides(args, 1);
+        List<Properties> experiments = sweep.getExperiments();
+        String manifest = sweep.name + "-experiments.csv";
+        System.out.println("Sweep: " + experiments.size() + " experiments, "
+                + "seeds " + sweep.firstSeed + " to " + sweep.lastSeed);
+        System.out.println("Output experiments: " + manifest);
+        sweep.writeManifest(Paths.get(manifest), experiments);
+
+        List<BatchRunner.Experiment> batch = new ArrayList<>();
+        for (Properties experiment : experiments) {
+            batch.add(new BatchRunner.Experiment(sweep.base, experiment));
+        }
+        int failures = BatchRunner.fromOverrides(overrides).runExperiments(
+                batch, sweep.firstSeed, sweep.lastSeed,
+                sweep.inheritanceFlags);
+        if (failures > 0) {
+            System.err.println(failures + " runs failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read a sweep specification
+     *
+     * @param sweepFile properties file specifying the sweep
+     * @throws IOException when reading the file fails
+     */
+    public Sweep(String sweepFile) throws IOException {
+        Properties spec = new Properties();
+        try (InputStream in = new FileInputStream(sweepFile)) {
+            spec.load(in);
+        }
+        base = spec.getProperty("Base", Simulation.DEFAULT_PROPERTIES_FILE);
+        String[] seeds = spec.getProperty("Seeds", "0:0").split(":");
+        firstSeed = Integer.parseInt(seeds[0].trim());
+        lastSeed = Integer.parseInt(seeds[seeds.length - 1].trim());
+        for (String flag : spec.getProperty("Inheritance", "false")
+                .split(",")) {
+            inheritanceFlags.add(Boolean.parseBoolean(flag.trim()));
+        }
+        name = spec.getProperty("Name",
+                new File(sweepFile).getName().split("\\.")[0]);
+
+        // sweep keys in sorted order, so experiments are numbered the same
+        // however the file is laid out
+        for (String key : new TreeSet<>(spec.stringPropertyNames())) {
+            if (RESERVED.contains(key)) {
+                continue;
+            }
+            String[] dimension = key.split("\\+");
+            List<String[]> dimensionValues = new ArrayList<>();
+            for (String value : expand(spec.getProperty(key))) {
+                String[] tuple = value.split("/");
+                if (tuple.length != dimension.length) {
+                    throw new IllegalArgumentException("Sweep value " +
+                            value + " does not match " + key);
+                }
+                dimensionValues.add(tuple);
+            }
+            keys.add(dimension);
+            values.add(dimensionValues);
+        }
+    }
+
+    /**
+     * Expand a list of values and ranges
+     *
+     * @param spec comma separated values or ranges from:to[:step]
+     * @return each value
+     */
+    static List<String> expand(String spec) {
+        List<String> expanded = new ArrayList<>();
+        for (String value : spec.split(",")) {
+            value = value.trim();
+            if (!value.contains(":")) {
+                expanded.add(value);
+                continue;
+            }
+            String[] range = value.split(":");
+            int from = Integer.parseInt(range[0].trim());
+            int to = Integer.parseInt(range[1].trim());
+            int step = range.length > 2 ? Integer.parseInt(range[2].trim()) :
+                    1;
+            if (step <= 0) {
+                throw new IllegalArgumentException("Sweep step must be " +
+                        "positive: " + value);
+            }
+            for (int v = from; v <= to; v += step) {
+                expanded.add(String.valueOf(v));
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * @return properties of every experiment, the Cartesian product of the
+     * swept values with the last key varying fastest, each with its RunName
+     */
+    public List<Properties> getExperiments() {
+        int count = 1;
+        for (List<String[]> dimensionValues : values) {
+            count *= dimensionValues.size();
+        }
+        // pad experiment numbers so output files sort in order
+        String format = "%s-%0" + String.valueOf(count - 1).length() + "d";
+        List<Properties> experiments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            Properties experiment = new Properties();
+            int remainder = index;
+            for (int d = keys.size() - 1; d >= 0; d--) {
+                List<String[]> dimensionValues = values.get(d);
+                String[] tuple = dimensionValues.get(remainder %
+                        dimensionValues.size());
+                remainder /= dimensionValues.size();
+                for (int k = 0; k < tuple.length; k++) {
+                    experiment.setProperty(keys.get(d)[k], tuple[k].trim());
+                }
+            }
+            experiment.setProperty("RunName", String.format(format, name,
+                    index));
+            experiments.add(experiment);
+        }
+        return experiments;
+    }
+
+    /**
+     * Write a csv listing each experiment's name and swept values
+     *
+     * @param file        csv file to write
+     * @param experiments properties of every experiment
+     * @throws IOException when writing fails
+     */
+    public void writeManifest(Path file, List<Properties> experiments)
+            throws IOException {
+        List<String> columns = new ArrayList<>();
+        for (String[] dimension : keys) {
+            columns.addAll(Arrays.asList(dimension));
+        }
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file))) {
+            pw.println("experiment," + String.join(",", columns));
+            for (Properties experiment : experiments) {
+                StringBuilder line = new StringBuilder(
+                        experiment.getProperty("RunName"));
+                for (String column : columns) {
+                    line.append(',').append(experiment.getProperty(column));
+                }
+                pw.println(line);
+            }
+        }
+    }
+}
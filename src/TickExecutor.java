@@ -0,0 +1,108 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the independent steps of a phase of a tick, such as each turtle
+ * turning towards grain or each column of patches growing grain, across a
+ * fork-join pool.  Steps passed to forEach must not depend on each other,
+ * so that the result is the same whatever the number of threads and
+ * whatever order the steps run in.
+ * With one thread, steps run in order on the calling thread.
+ */
+public class TickExecutor {
+    // number of chunks to split each phase into per thread, so that
+    // threads finishing early can steal work
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // number of threads to run steps on
+    private final int threads;
+    // pool running the steps, or null when running on the calling thread
+    private final ForkJoinPool pool;
+
+    /**
+     * @param threads number of threads to run steps on
+     */
+    public TickExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1: "
+                    + threads);
+        }
+        this.threads = threads;
+        pool = threads == 1 ? null : new ForkJoinPool(threads);
+    }
+
+    /**
+     * Run step(i) for every i from 0 to n - 1, returning once all are done
+     *
+     * @param n    number of steps
+     * @param step independent step to run for each index
+     */
+    public void forEach(int n, IntConsumer step) {
+        if (pool == null || n <= 1) {
+            for (int i = 0; i < n; i++) {
+                step.accept(i);
+            }
+            return;
+        }
+        int chunk = Math.max(1, n / (threads * CHUNKS_PER_THREAD));
+        pool.invoke(new Steps(0, n, chunk, step));
+    }
+
+    /**
+     * @return number of threads steps run on
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Stop the pool's threads once the simulation has finished
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs a range of steps, splitting it in half until it is small enough
+     */
+    private static class Steps extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // first step, inclusive
+        private final int from;
+        // last step, exclusive
+        private final int to;
+        // largest range to run without splitting
+        private final int chunk;
+        // step to run for each index
+        private final IntConsumer step;
+
+        Steps(int from, int to, int chunk, IntConsumer step) {
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.step = step;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                for (int i = from; i < to; i++) {
+                    step.accept(i);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Steps(from, middle, chunk, step),
+                        new Steps(middle, to, chunk, step));
+            }
+        }
+    }
+}
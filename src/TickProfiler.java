@@ -0,0 +1,241 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Runs the phases of each tick through Simulation.go, timing each phase and
+ * counting the bytes allocated by the thread running the tick during it.
+ * Times go into a histogram per phase, and each phase is also a JFR event,
+ * recorded when a flight recording is running, e.g. with
+ * -XX:StartFlightRecording.  Only used when the Profile property is set, so
+ * unprofiled ticks are untouched.
+ */
+public class TickProfiler implements Simulation.PhaseRunner {
+    // phases of a tick, in the order they run
+    private static final Simulation.Phase[] PHASES = Simulation.Phase.ALL;
+
+    // thread bean used to count bytes allocated by the thread running ticks
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+
+    // simulation being profiled
+    private final Simulation simulation;
+    // time taken by each phase, and by whole ticks
+    private final Histogram[] nanos = new Histogram[PHASES.length];
+    private final Histogram tickNanos = new Histogram();
+    // bytes allocated by each phase, and by whole ticks
+    private final long[] bytes = new long[PHASES.length];
+    private long tickBytes;
+
+    /**
+     * @param simulation simulation to profile
+     */
+    public TickProfiler(Simulation simulation) {
+        this.simulation = simulation;
+        for (int i = 0; i < PHASES.length; i++) {
+            nanos[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Run one tick of the simulation, profiling each phase
+     */
+    public void tick() {
+        long tickStartBytes = THREADS.getCurrentThreadAllocatedBytes();
+        long tickStart = System.nanoTime();
+        simulation.go(this);
+        tickNanos.record(System.nanoTime() - tickStart);
+        tickBytes += THREADS.getCurrentThreadAllocatedBytes() - tickStartBytes;
+    }
+
+    /**
+     * Run one phase of a tick, timing it
+     */
+    @Override
+    public void run(Simulation.Phase phase, Simulation simulation) {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        long startBytes = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        phase.run(simulation);
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() -
+                startBytes;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.getLabel();
+            event.tick = simulation.tick;
+            event.allocated = allocated;
+            event.commit();
+        }
+        nanos[phase.ordinal()].record(elapsed);
+        bytes[phase.ordinal()] += allocated;
+    }
+
+    /**
+     * Print a table of each phase's time per tick it ran, its share of all
+     * ticks' time, and its bytes allocated per tick it ran
+     *
+     * @param out  stream to print to
+     * @param name name of the run
+     */
+    public void printSummary(PrintStream out, String name) {
+        out.println("Profile: " + name);
+        out.println(String.format("%-18s %8s %10s %10s %10s %10s %10s %7s %12s",
+                "Phase", "Ticks", "mean us", "p50 us", "p90 us", "p99 us",
+                "max us", "% tick", "B/tick"));
+        for (int i = 0; i < PHASES.length; i++) {
+            printRow(out, PHASES[i].getLabel(), nanos[i], bytes[i]);
+        }
+        printRow(out, "tick", tickNanos, tickBytes);
+    }
+
+    /**
+     * Print one row of the summary table
+     */
+    private void printRow(PrintStream out, String phase, Histogram h,
+                          long allocated) {
+        long count = Math.max(1, h.getCount());
+        out.println(String.format(
+                "%-18s %8d %10.1f %10.1f %10.1f %10.1f %10.1f %7.1f %12d",
+                phase, h.getCount(), h.getMean() / 1e3,
+                h.getValueAtPercentile(50) / 1e3,
+                h.getValueAtPercentile(90) / 1e3,
+                h.getValueAtPercentile(99) / 1e3, h.getMax() / 1e3,
+                100.0 * h.getTotal() / Math.max(1, tickNanos.getTotal()),
+                allocated / count));
+    }
+
+    /**
+     * Histogram of non-negative values, as HdrHistogram records them: values
+     * are grouped by their highest set bit, and each group is split into
+     * SUB_BUCKETS equal buckets, so any value is recorded to within 1/64 of
+     * itself, in fixed memory, without allocating.
+     */
+    public static class Histogram {
+        // number of bits of each value kept
+        private static final int PRECISION_BITS = 7;
+        // number of buckets each power of two is split into
+        private static final int SUB_BUCKETS = 1 << (PRECISION_BITS - 1);
+
+        // number of values recorded in each bucket
+        private final long[] counts = new long[(64 - PRECISION_BITS + 2) *
+                SUB_BUCKETS];
+        // number of values recorded
+        private long count;
+        // sum of values recorded
+        private long total;
+        // largest value recorded
+        private long max;
+
+        /**
+         * Record a value
+         *
+         * @param value non-negative value to record
+         */
+        public void record(long value) {
+            counts[bucket(Math.max(0, value))]++;
+            count++;
+            total += value;
+            max = Math.max(max, value);
+        }
+
+        /**
+         * @return index of the bucket holding a value
+         */
+        private static int bucket(long value) {
+            // values below 2 * SUB_BUCKETS each have their own bucket
+            int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) -
+                    PRECISION_BITS);
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        /**
+         * @return largest value in a bucket
+         */
+        private static long highestInBucket(int bucket) {
+            int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+            long sub = bucket - (long) (bucket / SUB_BUCKETS) * SUB_BUCKETS;
+            long lowest = bucket < 2 * SUB_BUCKETS ? bucket :
+                    (sub + SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        /**
+         * @param percentile percentage of values, from 0 to 100
+         * @return value that the given percentage of values are at or below,
+         * to within the histogram's precision
+         */
+        public long getValueAtPercentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 *
+                    count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return Math.min(max, highestInBucket(b));
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return number of values recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return sum of values recorded
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return mean of values recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @return largest value recorded
+         */
+        public long getMax() {
+            return max;
+        }
+    }
+
+    /**
+     * JFR event for one phase of a tick
+     */
+    @Name("wealth.TickPhase")
+    @Label("Tick Phase")
+    @Category("Wealth Distribution")
+    @Description("One phase of a simulation tick")
+    @StackTrace(false)
+    public static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Tick")
+        int tick;
+
+        @Label("Allocated Bytes")
+        long allocated;
+    }
+}
@@ -0,0 +1,884 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Domain-decomposed engine for very large worlds.
+ * The torus is split into rectangular tiles, each owning the patches within
+ * it and the turtles standing on them, with its own occupancy index and
+ * wealth histogram.  Each phase of a tick runs every tile in parallel.
+ * Each tile keeps a copy of the grain on the patches up to MaxVision beyond
+ * its edges (its halo), refreshed once per tick, so that its turtles look
+ * for grain without reading other tiles' patches.  Turtles that move off a
+ * tile are handed over to the tile they moved onto at the end of the tick.
+ * Needs RandomStreams=split, so that what a turtle draws does not depend
+ * on which tile it is on; produces the same output as the other engines
+ * with split streams, whatever the tile size or number of threads.
+ */
+public class TiledWorld extends Simulation {
+    // width and height of tiles when none is given
+    public static final int DEFAULT_TILE_SIZE = 256;
+    // change in x/y coordinates for one step in each heading, indexed by
+    // Heading.ordinal(): NORTH, EAST, SOUTH, WEST
+    private static final int[] HEADING_DX = {0, 1, 0, -1};
+    private static final int[] HEADING_DY = {1, 0, -1, 0};
+    // headings in the order turtles consider them
+    private static final Heading[] HEADINGS = Heading.values();
+
+    // width and height of each tile; tiles on the far edges may be smaller
+    private int tileSize;
+    // number of tiles in x/y direction
+    private int xTiles;
+    private int yTiles;
+    // tiles, indexed by tileX * yTiles + tileY
+    private Tile[] tiles;
+    // number of turtles holding each wealth value, merged from every tile
+    private WealthHistogram wealthHistogram;
+    // generator each thread draws a turtle's stream from, positioned at the
+    // turtle's state for each use
+    private final ThreadLocal<StreamRandom> streams =
+            ThreadLocal.withInitial(() -> new StreamRandom(0, 0));
+
+    /**
+     * Read the tile size, and check turtles have their own random streams
+     */
+    @Override
+    protected void setupEngineProperties(Properties properties) {
+        if (!splitStreams) {
+            throw new IllegalArgumentException(
+                    "Engine=tiled needs RandomStreams=split");
+        }
+        // optional: width and height of each tile
+        tileSize = Integer.parseInt(properties.getProperty("TileSize",
+                String.valueOf(DEFAULT_TILE_SIZE)));
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("TileSize must be at least 1: "
+                    + tileSize);
+        }
+    }
+
+    /**
+     * Creates tiles and initialises their patches with grain, seeded and
+     * diffused in the tiles themselves, with the same draws and arithmetic
+     * as Simulation.setupInitialGrain, so no array spans the whole world
+     * unless the run uses a patch cache, whose entries do
+     */
+    @Override
+    protected void setupPatches() {
+        createTiles();
+        double[] cached = loadCachedGrain();
+        if (cached != null) {
+            for (int x = 0; x < xPatches; x++) {
+                for (int y = 0; y < yPatches; y++) {
+                    Tile tile = tileAt(x, y);
+                    tile.grainHere[tile.index(x, y)] =
+                            cached[x * yPatches + y];
+                }
+            }
+        } else {
+            seedInitialGrain();
+            if (isCachingPatches()) {
+                double[] grain = new double[xPatches * yPatches];
+                for (int x = 0; x < xPatches; x++) {
+                    for (int y = 0; y < yPatches; y++) {
+                        Tile tile = tileAt(x, y);
+                        grain[x * yPatches + y] =
+                                tile.grainHere[tile.index(x, y)];
+                    }
+                }
+                storeCachedGrain(grain);
+            }
+        }
+        for (Tile tile : tiles) {
+            System.arraycopy(tile.grainHere, 0, tile.maxGrainHere, 0,
+                    tile.grainHere.length);
+        }
+        updatePerception();
+    }
+
+    /**
+     * Split the world into tiles, their patches yet to be given grain
+     */
+    private void createTiles() {
+        xTiles = (xPatches + tileSize - 1) / tileSize;
+        yTiles = (yPatches + tileSize - 1) / tileSize;
+        tiles = new Tile[xTiles * yTiles];
+        for (int tx = 0; tx < xTiles; tx++) {
+            for (int ty = 0; ty < yTiles; ty++) {
+                int x0 = tx * tileSize;
+                int y0 = ty * tileSize;
+                tiles[tx * yTiles + ty] = new Tile(x0, y0,
+                        Math.min(tileSize, xPatches - x0),
+                        Math.min(tileSize, yPatches - y0));
+            }
+        }
+    }
+
+    /**
+     * Seed each tile's patches with grain and diffuse it, as
+     * Simulation.setupInitialGrain does over the whole world.  Until the
+     * tiles' maximum grain is set, it holds the grain each patch was seeded
+     * with, marking the best land.
+     */
+    private void seedInitialGrain() {
+        // initialise patches, in the order the other engines draw them
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                Tile tile = tileAt(x, y);
+                int p = tile.index(x, y);
+                tile.grainHere[p] = determinePatchGrain();
+                tile.maxGrainHere[p] = tile.grainHere[p];
+            }
+        }
+
+        if (simultaneousDiffusion) {
+            // as NetLogo: reset best land, then diffuse across all patches
+            // at once, 5 times
+            for (int i = 0; i < 5; i++) {
+                executor.forEach(tiles.length, t -> tiles[t].resetBestLand());
+                diffuseSimultaneous();
+            }
+            // diffuse 10 times across all patches
+            for (int i = 0; i < 10; i++) {
+                diffuseSimultaneous();
+            }
+            for (Tile tile : tiles) {
+                tile.share = null;
+            }
+        } else {
+            // spread grain around.  put some back into best land (diffuse)
+            // diffuse 5 times
+            for (int i = 0; i < 5; i++) {
+                for (int x = 0; x < xPatches; x++) {
+                    for (int y = 0; y < yPatches; y++) {
+                        Tile tile = tileAt(x, y);
+                        int p = tile.index(x, y);
+                        if (tile.maxGrainHere[p] != 0) {
+                            // reset to initial grain value
+                            tile.grainHere[p] = MAX_GRAIN;
+                            diffuseFrom(x, y);
+                        }
+                    }
+                }
+            }
+            // diffuse 10 times across all patches
+            for (int i = 0; i < 10; i++) {
+                for (int x = 0; x < xPatches; x++) {
+                    for (int y = 0; y < yPatches; y++) {
+                        diffuseFrom(x, y);
+                    }
+                }
+            }
+        }
+
+        // round down to whole grain
+        for (Tile tile : tiles) {
+            for (int p = 0; p < tile.grainHere.length; p++) {
+                tile.grainHere[p] = Math.floor(tile.grainHere[p]);
+            }
+        }
+    }
+
+    /**
+     * Diffuse grain from patch (x,y) to its neighbours, in place, in the
+     * same order and with the same arithmetic as DiffusionKernel
+     */
+    private void diffuseFrom(int x, int y) {
+        Tile tile = tileAt(x, y);
+        int centre = tile.index(x, y);
+        double grainToShare = tile.grainHere[centre] *
+                GRAIN_DIFFUSION_PROPORTION;
+        double grainPerNeighbour = grainToShare / 8.0f;
+        tile.grainHere[centre] += -8 * grainPerNeighbour;
+        for (int dx = -1; dx <= 1; dx++) {
+            int nx = wrap(x + dx, xPatches);
+            for (int dy = -1; dy <= 1; dy++) {
+                if (!(dx == 0 && dy == 0)) {
+                    int ny = wrap(y + dy, yPatches);
+                    Tile neighbour = tileAt(nx, ny);
+                    neighbour.grainHere[neighbour.index(nx, ny)] +=
+                            grainPerNeighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Diffuse grain from every patch at once, as
+     * DiffusionKernel.diffuseSimultaneous: each tile works out what its
+     * patches share, then each gathers what its patches receive, tiles in
+     * parallel
+     */
+    private void diffuseSimultaneous() {
+        executor.forEach(tiles.length, t -> tiles[t].shareGrain());
+        executor.forEach(tiles.length, t -> tiles[t].gatherGrain());
+    }
+
+    /**
+     * Create the turtles, placing each on the tile owning its patch
+     */
+    @Override
+    protected void setupTurtles() {
+        wealthHistogram = new WealthHistogram();
+        for (int i = 0; i < numPeople; i++) {
+            // determine location of new turtle
+            int x = random.nextInt(xPatches);
+            int y = random.nextInt(yPatches);
+            Tile tile = tileAt(x, y);
+            int slot = tile.addTurtle(x, y, i,
+                    StreamRandom.initialState(randomSeed, i));
+            StreamRandom stream = tile.turtleRandom(slot);
+            tile.setInitialTurtleVars(slot, stream);
+            tile.age[slot] = stream.nextInt(tile.lifeExpectancy[slot]);
+            tile.streamState[slot] = stream.getState();
+            tile.countWealth(slot);
+        }
+        executor.forEach(tiles.length, t -> tiles[t].record());
+    }
+
+    /**
+     * Write the grain of each patch and the state of each turtle to a
+     * checkpoint, in the same layout as World except that turtles are in
+     * tile order, each record holding its turtle's id before its random
+     * number stream
+     */
+    @Override
+    protected void writeState(CheckpointOutput out) {
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                Tile tile = tileAt(x, y);
+                int p = tile.index(x, y);
+                out.putDouble(tile.grainHere[p]);
+                out.putDouble(tile.maxGrainHere[p]);
+            }
+        }
+        out.putInt(numPeople);
+        for (Tile tile : tiles) {
+            for (int i = 0; i < tile.size; i++) {
+                out.putInt(tile.age[i]);
+                out.putInt(tile.wealth[i]);
+                out.putInt(tile.turtleX[i]);
+                out.putInt(tile.turtleY[i]);
+                out.putInt(tile.lifeExpectancy[i]);
+                out.putInt(tile.metabolism[i]);
+                out.putInt(tile.vision[i]);
+                out.putByte(tile.heading[i]);
+                out.putInt(tile.turtleId[i]);
+                writeTurtleRandom(out, tile.turtleRandom(i));
+            }
+        }
+    }
+
+    /**
+     * Restore tiles and their turtles from a checkpoint
+     */
+    @Override
+    protected void readState(ByteBuffer in) {
+        createTiles();
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                Tile tile = tileAt(x, y);
+                int p = tile.index(x, y);
+                tile.grainHere[p] = in.getDouble();
+                tile.maxGrainHere[p] = in.getDouble();
+            }
+        }
+        updatePerception();
+
+        numPeople = in.getInt();
+        wealthHistogram = new WealthHistogram();
+        for (int i = 0; i < numPeople; i++) {
+            int age = in.getInt();
+            int wealth = in.getInt();
+            int x = in.getInt();
+            int y = in.getInt();
+            Tile tile = tileAt(x, y);
+            int slot = tile.addTurtle(x, y, 0, 0);
+            tile.age[slot] = age;
+            tile.wealth[slot] = wealth;
+            tile.lifeExpectancy[slot] = in.getInt();
+            tile.metabolism[slot] = in.getInt();
+            tile.vision[slot] = in.getInt();
+            tile.heading[slot] = in.get();
+            int id = in.getInt();
+            tile.turtleId[slot] = id;
+            tile.streamState[slot] = ((StreamRandom) readTurtleRandom(in, id))
+                    .getState();
+            tile.countWealth(slot);
+        }
+        executor.forEach(tiles.length, t -> tiles[t].record());
+    }
+
+    /**
+     * Make turtles turn towards grain, tiles in parallel
+     */
+    @Override
+    protected void turnTowardsGrain() {
+        executor.forEach(tiles.length, t -> tiles[t].turnTowardsGrain());
+    }
+
+    /**
+     * Harvest grain, tiles in parallel
+     */
+    @Override
+    protected void harvest() {
+        executor.forEach(tiles.length, t -> tiles[t].harvest());
+    }
+
+    /**
+     * Run each turtle, tiles in parallel, then hand turtles that moved off
+     * their tile over to the tile they moved onto
+     */
+    @Override
+    protected void moveEatAgeDie() {
+        executor.forEach(tiles.length, t -> tiles[t].moveEatAgeDie());
+        handOver();
+        // record where each turtle moved to and its new wealth
+        executor.forEach(tiles.length, t -> tiles[t].record());
+        applyWealthChanges();
+    }
+
+    /**
+     * Grow grain on every patch, tiles in parallel
+     */
+    @Override
+    protected void growGrain() {
+        executor.forEach(tiles.length, t -> tiles[t].growGrain());
+    }
+
+    /**
+     * Copy the grain left after harvest and growth into every tile's halo,
+     * and sum it, for next tick
+     */
+    @Override
+    protected void updatePerception() {
+        executor.forEach(tiles.length, t -> tiles[t].updatePerception());
+    }
+
+    /**
+     * Move every turtle that has left its tile to the tile it is now on.
+     * Runs on one thread, between the parallel phases, so that no tile is
+     * changed by two threads at once.
+     */
+    private void handOver() {
+        for (Tile tile : tiles) {
+            if (tile.emigrants == 0) {
+                continue;
+            }
+            // visit slots from the end, as removing a turtle moves the last
+            // turtle into its slot
+            for (int slot = tile.size - 1; slot >= 0; slot--) {
+                int x = tile.turtleX[slot];
+                int y = tile.turtleY[slot];
+                if (!tile.contains(x, y)) {
+                    tileAt(x, y).adoptTurtle(tile, slot);
+                    tile.removeTurtle(slot);
+                }
+            }
+            tile.emigrants = 0;
+        }
+    }
+
+    /**
+     * Move the turtles whose wealth changed this tick, as recorded by each
+     * tile, to their new wealth in the world's histogram.  Runs on one
+     * thread, taking time proportional to the number of changes rather
+     * than to the number of tiles times the range of wealth.
+     */
+    private void applyWealthChanges() {
+        for (Tile tile : tiles) {
+            for (int c = 0; c < tile.numWealthChanges; c += 2) {
+                wealthHistogram.move(tile.wealthChanges[c],
+                        tile.wealthChanges[c + 1]);
+            }
+            tile.numWealthChanges = 0;
+        }
+    }
+
+    /**
+     * @return tile owning patch (x,y)
+     */
+    private Tile tileAt(int x, int y) {
+        return tiles[(x / tileSize) * yTiles + y / tileSize];
+    }
+
+    /**
+     * @return histogram of the current wealth of each turtle
+     */
+    @Override
+    public WealthHistogram getWealthHistogram() {
+        return wealthHistogram;
+    }
+
+    /**
+     * Copy the grain and number of turtles on each patch, tile by tile
+     */
+    @Override
+    protected void copyFrame(double[] grain, int[] turtles) {
+        for (Tile tile : tiles) {
+            int offset = tile.x0 * yPatches + tile.y0;
+            for (int x = 0; x < tile.width; x++) {
+                System.arraycopy(tile.grainHere, x * tile.height, grain,
+                        offset + x * yPatches, tile.height);
+            }
+            tile.occupancy.copyCounts(turtles, offset, yPatches);
+        }
+    }
+
+    /**
+     * A rectangle of patches and the turtles standing on them.
+     * Patch state is indexed by localX * height + localY, and turtle state
+     * is held in parallel arrays indexed by the turtle's slot on the tile.
+     */
+    private class Tile {
+        // world coordinates of the tile's first patch
+        private final int x0;
+        private final int y0;
+        // number of patches in x/y direction
+        private final int width;
+        private final int height;
+        // current amount of grain on each patch
+        private final double[] grainHere;
+        // maximum grain each patch can hold
+        private final double[] maxGrainHere;
+        // grain each patch shares with each neighbour, only while diffusing
+        // grain at setup
+        private double[] share;
+
+        // width of the halo around the tile
+        private final int halo;
+        // height of the tile's view, the tile and its halo
+        private final int viewHeight;
+        // whole grain on each patch of the view, indexed by
+        // viewX * viewHeight + viewY
+        private final int[] view;
+        // for each column of the view, prefix sums of grain along y
+        private final int[] columnSums;
+        // for each row of the view, prefix sums of grain along x
+        private final int[] rowSums;
+
+        // number of turtles on the tile
+        private int size;
+        // current age of each turtle
+        private int[] age;
+        // current wealth of each turtle
+        private int[] wealth;
+        // current x/y position of each turtle, in world coordinates
+        private int[] turtleX;
+        private int[] turtleY;
+        // life expectancy of each turtle
+        private int[] lifeExpectancy;
+        // metabolism of each turtle: how much grain to consume at each tick
+        private int[] metabolism;
+        // vision of each turtle: the number of heading patches it can see
+        private int[] vision;
+        // direction each turtle is heading, as Heading.ordinal()
+        private byte[] heading;
+        // id of each turtle, its index in the order turtles were created
+        private int[] turtleId;
+        // position of each turtle's random number stream
+        private long[] streamState;
+        // wealth each turtle is counted with in the world's histogram
+        private int[] countedWealth;
+        // number of turtles that have moved off the tile this tick
+        private int emigrants;
+        // wealth each turtle whose wealth changed this tick was counted
+        // with, and its new wealth, in pairs, for the world's histogram
+        private int[] wealthChanges = new int[0];
+        private int numWealthChanges;
+
+        // index of which turtles are on each patch
+        private final PatchOccupancy occupancy;
+
+        Tile(int x0, int y0, int width, int height) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.width = width;
+            this.height = height;
+            grainHere = new double[width * height];
+            maxGrainHere = new double[width * height];
+
+            halo = maxVision;
+            viewHeight = height + 2 * halo;
+            int viewWidth = width + 2 * halo;
+            view = new int[viewWidth * viewHeight];
+            columnSums = new int[viewWidth * (viewHeight + 1)];
+            rowSums = new int[viewHeight * (viewWidth + 1)];
+
+            // expect an even share of the turtles
+            int capacity = Math.max(16, (int) ((long) numPeople * width *
+                    height / ((long) xPatches * yPatches)));
+            age = new int[capacity];
+            wealth = new int[capacity];
+            turtleX = new int[capacity];
+            turtleY = new int[capacity];
+            lifeExpectancy = new int[capacity];
+            metabolism = new int[capacity];
+            vision = new int[capacity];
+            heading = new byte[capacity];
+            turtleId = new int[capacity];
+            streamState = new long[capacity];
+            countedWealth = new int[capacity];
+            occupancy = new PatchOccupancy(width, height, capacity);
+        }
+
+        /**
+         * @return index of patch (x,y), in world coordinates, on the tile
+         */
+        int index(int x, int y) {
+            return (x - x0) * height + y - y0;
+        }
+
+        /**
+         * Put best land, marked by its maximum grain during setup, back to
+         * its initial grain value
+         */
+        void resetBestLand() {
+            for (int p = 0; p < grainHere.length; p++) {
+                if (maxGrainHere[p] != 0) {
+                    grainHere[p] = MAX_GRAIN;
+                }
+            }
+        }
+
+        /**
+         * Work out the grain each patch shares with each neighbour
+         */
+        void shareGrain() {
+            if (share == null) {
+                share = new double[grainHere.length];
+            }
+            for (int p = 0; p < grainHere.length; p++) {
+                share[p] = grainHere[p] * GRAIN_DIFFUSION_PROPORTION / 8.0f;
+            }
+        }
+
+        /**
+         * Gather the grain shared into each patch, in place, adding the
+         * neighbours' shares in the same order as DiffusionKernel.  Patches
+         * away from the tile's edges read their neighbours' shares directly;
+         * those on the edges look them up on whichever tile holds them.
+         */
+        void gatherGrain() {
+            for (int x = 0; x < width; x++) {
+                boolean innerColumn = x > 0 && x < width - 1;
+                for (int y = 0; y < height; y++) {
+                    int centre = x * height + y;
+                    double grain = grainHere[centre] - 8 * share[centre];
+                    if (innerColumn && y > 0 && y < height - 1) {
+                        int left = centre - height;
+                        int right = centre + height;
+                        grain = grain + share[left - 1] + share[left] +
+                                share[left + 1] + share[centre - 1] +
+                                share[centre + 1] + share[right - 1] +
+                                share[right] + share[right + 1];
+                    } else {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            int nx = wrap(x0 + x + dx, xPatches);
+                            for (int dy = -1; dy <= 1; dy++) {
+                                if (!(dx == 0 && dy == 0)) {
+                                    int ny = wrap(y0 + y + dy, yPatches);
+                                    Tile tile = tileAt(nx, ny);
+                                    grain += tile.share[tile.index(nx, ny)];
+                                }
+                            }
+                        }
+                    }
+                    grainHere[centre] = grain;
+                }
+            }
+        }
+
+        /**
+         * @return whether patch (x,y), in world coordinates, is on the tile
+         */
+        boolean contains(int x, int y) {
+            return x >= x0 && x < x0 + width && y >= y0 && y < y0 + height;
+        }
+
+        /**
+         * Add a turtle at (x,y), its other state yet to be set
+         *
+         * @param id          id of the turtle
+         * @param streamState position of the turtle's random number stream
+         * @return slot of the new turtle
+         */
+        int addTurtle(int x, int y, int id, long streamState) {
+            if (size == age.length) {
+                grow();
+            }
+            int slot = size++;
+            turtleX[slot] = x;
+            turtleY[slot] = y;
+            turtleId[slot] = id;
+            this.streamState[slot] = streamState;
+            return slot;
+        }
+
+        /**
+         * @return this thread's stream, positioned at the state of the
+         * turtle in a slot
+         */
+        StreamRandom turtleRandom(int slot) {
+            StreamRandom stream = streams.get();
+            stream.setState(streamState[slot]);
+            return stream;
+        }
+
+        /**
+         * Take over a turtle from another tile
+         *
+         * @param from tile the turtle is on
+         * @param i    slot of the turtle on that tile
+         */
+        void adoptTurtle(Tile from, int i) {
+            int slot = addTurtle(from.turtleX[i], from.turtleY[i],
+                    from.turtleId[i], from.streamState[i]);
+            age[slot] = from.age[i];
+            wealth[slot] = from.wealth[i];
+            lifeExpectancy[slot] = from.lifeExpectancy[i];
+            metabolism[slot] = from.metabolism[i];
+            vision[slot] = from.vision[i];
+            heading[slot] = from.heading[i];
+            countedWealth[slot] = from.countedWealth[i];
+        }
+
+        /**
+         * Remove a turtle, moving the last turtle into its slot
+         */
+        void removeTurtle(int slot) {
+            int last = --size;
+            age[slot] = age[last];
+            wealth[slot] = wealth[last];
+            turtleX[slot] = turtleX[last];
+            turtleY[slot] = turtleY[last];
+            lifeExpectancy[slot] = lifeExpectancy[last];
+            metabolism[slot] = metabolism[last];
+            vision[slot] = vision[last];
+            heading[slot] = heading[last];
+            turtleId[slot] = turtleId[last];
+            streamState[slot] = streamState[last];
+            countedWealth[slot] = countedWealth[last];
+        }
+
+        /**
+         * Double the capacity of the turtle arrays
+         */
+        private void grow() {
+            int capacity = age.length * 2;
+            age = Arrays.copyOf(age, capacity);
+            wealth = Arrays.copyOf(wealth, capacity);
+            turtleX = Arrays.copyOf(turtleX, capacity);
+            turtleY = Arrays.copyOf(turtleY, capacity);
+            lifeExpectancy = Arrays.copyOf(lifeExpectancy, capacity);
+            metabolism = Arrays.copyOf(metabolism, capacity);
+            vision = Arrays.copyOf(vision, capacity);
+            heading = Arrays.copyOf(heading, capacity);
+            turtleId = Arrays.copyOf(turtleId, capacity);
+            streamState = Arrays.copyOf(streamState, capacity);
+            countedWealth = Arrays.copyOf(countedWealth, capacity);
+        }
+
+        /**
+         * Reset a turtle's properties when it dies or is born, drawing random
+         * numbers in the same order as Turtle.setInitialTurtleVars
+         *
+         * @param i slot of the turtle
+         * @param r turtle's random number stream
+         */
+        void setInitialTurtleVars(int i, Random r) {
+            age[i] = 0;
+            heading[i] = (byte) r.nextInt(HEADING_DX.length);
+            lifeExpectancy[i] = lifeExpectancyMin +
+                    r.nextInt(lifeExpectancyMax - lifeExpectancyMin + 1);
+            metabolism[i] = 1 + r.nextInt(metabolismMax);
+            if (!inheritance || tick == 0) {
+                wealth[i] = metabolism[i] + r.nextInt(WEALTH_BOUND);
+            } else {
+                wealth[i] = metabolism[i] + Math.max(0, wealth[i]);
+            }
+            vision[i] = 1 + r.nextInt(maxVision);
+        }
+
+        /**
+         * Turn each turtle towards the heading with the most grain within
+         * its vision, keeping the first best heading in Heading order on ties
+         */
+        void turnTowardsGrain() {
+            for (int i = 0; i < size; i++) {
+                int bestAmount = 0;
+                Heading bestDirection = Heading.NORTH;
+                for (Heading h : HEADINGS) {
+                    int grain = grainAhead(turtleX[i] - x0, turtleY[i] - y0,
+                            h, vision[i]);
+                    if (grain > bestAmount) {
+                        bestAmount = grain;
+                        bestDirection = h;
+                    }
+                }
+                heading[i] = (byte) bestDirection.ordinal();
+            }
+        }
+
+        /**
+         * Total whole grain on the distance patches ahead of a patch in a
+         * heading, not including the patch itself, read from the view
+         *
+         * @param x        x coordinate of the patch on the tile
+         * @param y        y coordinate of the patch on the tile
+         * @param heading  direction to look
+         * @param distance number of patches to look ahead, at most the halo
+         * @return total whole grain on the patches ahead
+         */
+        private int grainAhead(int x, int y, Heading heading, int distance) {
+            int viewX = x + halo;
+            int viewY = y + halo;
+            int column = viewX * (viewHeight + 1);
+            int row = viewY * (width + 2 * halo + 1);
+            switch (heading) {
+                case NORTH:
+                    return columnSums[column + viewY + distance + 1] -
+                            columnSums[column + viewY + 1];
+                case SOUTH:
+                    return columnSums[column + viewY] -
+                            columnSums[column + viewY - distance];
+                case EAST:
+                    return rowSums[row + viewX + distance + 1] -
+                            rowSums[row + viewX + 1];
+                default:
+                    return rowSums[row + viewX] -
+                            rowSums[row + viewX - distance];
+            }
+        }
+
+        /**
+         * Share the grain on each patch evenly between the turtles on it
+         */
+        void harvest() {
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    int numTurtles = occupancy.count(x, y);
+                    if (numTurtles == 0) {
+                        continue;
+                    }
+                    int p = x * height + y;
+                    int share = (int) (grainHere[p] / numTurtles);
+                    for (int i = occupancy.first(x, y);
+                         i != PatchOccupancy.NONE; i = occupancy.next(i)) {
+                        wealth[i] += share;
+                    }
+                    grainHere[p] = 0;
+                }
+            }
+        }
+
+        /**
+         * Move each turtle one patch along its heading, then consume grain,
+         * grow older, and be reborn if it has died, counting the turtles
+         * that move off the tile
+         */
+        void moveEatAgeDie() {
+            for (int i = 0; i < size; i++) {
+                turtleX[i] = wrap(turtleX[i] + HEADING_DX[heading[i]],
+                        xPatches);
+                turtleY[i] = wrap(turtleY[i] + HEADING_DY[heading[i]],
+                        yPatches);
+                if (!contains(turtleX[i], turtleY[i])) {
+                    emigrants++;
+                }
+
+                wealth[i] -= metabolism[i];
+                age[i]++;
+                if (wealth[i] < 0 || age[i] >= lifeExpectancy[i]) {
+                    StreamRandom stream = turtleRandom(i);
+                    setInitialTurtleVars(i, stream);
+                    streamState[i] = stream.getState();
+                }
+            }
+        }
+
+        /**
+         * Count a new turtle's wealth in the world's histogram
+         *
+         * @param slot slot of the turtle
+         */
+        void countWealth(int slot) {
+            wealthHistogram.add(wealth[slot]);
+            countedWealth[slot] = wealth[slot];
+        }
+
+        /**
+         * Rebuild the occupancy index from the turtles now on the tile,
+         * whose slots change as turtles are handed over, and note each
+         * turtle whose wealth has changed since it was last counted
+         */
+        void record() {
+            occupancy.clear();
+            if (wealthChanges.length < 2 * size) {
+                wealthChanges = new int[2 * age.length];
+            }
+            for (int i = 0; i < size; i++) {
+                occupancy.add(i, turtleX[i] - x0, turtleY[i] - y0);
+                if (wealth[i] != countedWealth[i]) {
+                    wealthChanges[numWealthChanges++] = countedWealth[i];
+                    wealthChanges[numWealthChanges++] = wealth[i];
+                    countedWealth[i] = wealth[i];
+                }
+            }
+        }
+
+        /**
+         * Grow grain on each patch, up to its maximum
+         */
+        void growGrain() {
+            for (int p = 0; p < grainHere.length; p++) {
+                if (grainHere[p] < maxGrainHere[p]) {
+                    grainHere[p] = Math.min(grainHere[p] + numGrainGrown,
+                            maxGrainHere[p]);
+                }
+            }
+        }
+
+        /**
+         * Copy the whole grain on the tile and its halo from the tiles
+         * owning those patches, then sum it along every column and row.
+         * Only reads other tiles' grain, which no phase running alongside
+         * changes.
+         */
+        void updatePerception() {
+            int viewWidth = width + 2 * halo;
+            for (int viewX = 0; viewX < viewWidth; viewX++) {
+                int x = Math.floorMod(x0 - halo + viewX, xPatches);
+                for (int viewY = 0; viewY < viewHeight; viewY++) {
+                    int y = Math.floorMod(y0 - halo + viewY, yPatches);
+                    Tile owner = tileAt(x, y);
+                    view[viewX * viewHeight + viewY] = (int) owner.grainHere[
+                            (x - owner.x0) * owner.height + y - owner.y0];
+                }
+            }
+
+            for (int viewX = 0; viewX < viewWidth; viewX++) {
+                int base = viewX * (viewHeight + 1);
+                columnSums[base] = 0;
+                for (int k = 0; k < viewHeight; k++) {
+                    columnSums[base + k + 1] = columnSums[base + k] +
+                            view[viewX * viewHeight + k];
+                }
+            }
+            for (int viewY = 0; viewY < viewHeight; viewY++) {
+                int base = viewY * (viewWidth + 1);
+                rowSums[base] = 0;
+                for (int k = 0; k < viewWidth; k++) {
+                    rowSums[base + k + 1] = rowSums[base + k] +
+                            view[k * viewHeight + viewY];
+                }
+            }
+        }
+    }
+}
@@ -4,7 +4,7 @@
  */
 
 import java.awt.*;
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
@@ -14,10 +14,14 @@ public class Turtle {
     // When computing new wealth of a turtle, the random component of wealth is
     // bounded by this value
     private final int WEALTH_BOUND = 50;
+    // unique id of the turtle, used to index it in the world
+    private final int id;
     // current age of the turtle
     private int age;
     // current wealth of the turtle
     private int wealth;
+    // wealth of the turtle as recorded in the world's wealth histogram
+    private int countedWealth;
 
     //the current turtle x/y positions
     private int x;
@@ -46,21 +50,70 @@ public class Turtle {
     /**
      * Constructor used to initialize a turtle
      *
-     * @param x initial x coordinate of the turtle position
-     * @param y initial y coordinate of the turtle position
+     * @param world world the turtle lives in
+     * @param id    unique id of the turtle
+     * @param x     initial x coordinate of the turtle position
+     * @param y     initial y coordinate of the turtle position
      */
-    public Turtle(int x, int y) {
+    public Turtle(World world, int id, int x, int y) {
+        this.id = id;
         //initialize the turtle position with the coordinate information
         // passed from the caller
         this.x = x;
         this.y = y;
-        this.world = World.getInstance();
+        this.world = world;
         //initialize other turtle properties
-        random = world.getRandom();
+        random = world.getTurtleRandom(id);
         inheritance = world.getInheritance();
 
         setInitialTurtleVars();
         age = random.nextInt(lifeExpectancy);
+
+        countedWealth = wealth;
+        world.getWealthHistogram().add(countedWealth);
+    }
+
+    /**
+     * Constructor used to restore a turtle from a checkpoint written by
+     * writeState
+     *
+     * @param world world the turtle lives in
+     * @param id    unique id of the turtle
+     * @param in    checkpoint positioned at the turtle's state
+     */
+    public Turtle(World world, int id, ByteBuffer in) {
+        this.id = id;
+        this.world = world;
+        inheritance = world.getInheritance();
+        age = in.getInt();
+        wealth = in.getInt();
+        x = in.getInt();
+        y = in.getInt();
+        lifeExpectancy = in.getInt();
+        metabolism = in.getInt();
+        vision = in.getInt();
+        heading = Heading.values()[in.get()];
+        random = world.readTurtleRandom(in, id);
+
+        countedWealth = wealth;
+        world.getWealthHistogram().add(countedWealth);
+    }
+
+    /**
+     * Write the turtle's state to a checkpoint
+     *
+     * @param out checkpoint being written
+     */
+    public void writeState(CheckpointOutput out) {
+        out.putInt(age);
+        out.putInt(wealth);
+        out.putInt(x);
+        out.putInt(y);
+        out.putInt(lifeExpectancy);
+        out.putInt(metabolism);
+        out.putInt(vision);
+        out.putByte(heading.ordinal());
+        world.writeTurtleRandom(out, random);
     }
 
     /**
@@ -68,7 +121,7 @@ public class Turtle {
      * grains) for each turtle in
      * the surrounding patches within the turtles' vision
      */
-    public void turnTowardsGrain() throws Exception {
+    public void turnTowardsGrain() {
         // highest amount of grain
         int bestAmount = 0;
         // best direction to head
@@ -93,32 +146,10 @@ public class Turtle {
      * @return the total number of grain in the heading patches that can be
      * seen by the turtle
      */
-    private int grainAhead() throws Exception {
-        //the total grain in the heading patches that can be seen by the turtle
-        int total = 0;
-        //get a list of patches which can be seen by the turtle in its
-        // heading direction
-        //the number of the patches in the list depends on the vision of the
-        // turtle
-        List<Patch> headingPatches = world
-                .getHeadingPatches(x, y, heading, vision);
-        //check if the returned heading patches list has the correct size
-        // (size == Turtle's vision),
-        // raise an exception if this is not the case
-        if (vision != headingPatches.size()) {
-            throw new Exception(String.format("Location (%d,%d), %s: the" +
-                            " number " +
-                            "of heading patches, %d, does not match the " +
-                            "turtle's vision, %d", x, y, heading,
-                    headingPatches.size(),
-                    vision));
-        }
-        //add up the total grain in the heading patches that can be seen by
-        // the turtle
-        for (Patch headingPatch : headingPatches) {
-            total = total + (int) headingPatch.getGrainHere();
-        }
-        return total;
+    private int grainAhead() {
+        // the number of heading patches seen depends on the vision of the
+        // turtle; the world's perception sums their grain in constant time
+        return world.getPerception().grainAhead(x, y, heading, vision);
     }
 
     /**
@@ -129,6 +160,7 @@ public class Turtle {
      * Then consume some grain according to metabolism and grow older. If it
      * reaches its life expectancy
      * or has grain<0, it will "die" and "reborn".
+     * Only changes this turtle; recordMove then updates the world.
      */
     public void moveEatAgeDie() {
         //update the turtle position to the new position after moving one
@@ -148,7 +180,18 @@ public class Turtle {
         if (wealth < 0 || age >= lifeExpectancy) {
             setInitialTurtleVars();
         }
+    }
 
+    /**
+     * Record the turtle's new position in the world's occupancy index, and
+     * its new wealth in the world's wealth histogram: the wealth gained in
+     * harvest less metabolism, or the wealth of the reborn turtle.
+     * Called after moveEatAgeDie, one turtle at a time.
+     */
+    public void recordMove() {
+        world.getOccupancy().move(id, x, y);
+        world.getWealthHistogram().move(countedWealth, wealth);
+        countedWealth = wealth;
     }
 
     /**
@@ -215,6 +258,13 @@ public class Turtle {
                 random.nextInt(maxLifeExp - minLifeExp + 1);
     }
 
+    /**
+     * @return the turtle's unique id
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * @return the x coordination value of the turtle position
      */
@@ -237,6 +287,9 @@ public class Turtle {
     }
 
     /**
+     * Set the turtle's wealth. The world's wealth histogram is brought up to
+     * date by the turtle's next recordMove.
+     *
      * @param wealth the turtle's wealth you wish to set to
      */
     public void setWealth(int wealth) {
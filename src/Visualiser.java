@@ -0,0 +1,288 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import javax.imageio.ImageIO;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws the grain and turtles on each patch every interval ticks, on a
+ * renderer thread of its own, as PNG files or in a window.  Patches are
+ * shaded yellow by their grain, as in NetLogo, and tinted red by the number
+ * of turtles on them.
+ * The simulation copies each frame into a back buffer, then swaps it with
+ * the latest published frame, so between ticks it only copies arrays and
+ * never waits for the renderer.  The renderer takes the latest published
+ * frame, leaving the swap slot empty, and returns it once drawn.  A frame
+ * published before the renderer took the one before it replaces that frame,
+ * which is dropped.
+ */
+public class Visualiser implements Closeable {
+    // colour of a patch with no grain and no turtles
+    private static final int BACKGROUND = 0x000000;
+    // colour a patch with turtles is tinted towards
+    private static final int TURTLE_COLOUR = 0xe03020;
+
+    // render to PNG files rather than a window
+    private final boolean png;
+    // number of ticks between frames
+    private final int interval;
+    // width and height of each patch in pixels
+    private final int scale;
+    // size of the world
+    private final int xPatches;
+    private final int yPatches;
+    // grain shaded fully yellow
+    private final double maxGrain;
+    // name of PNG files before the tick
+    private final String basename;
+
+    // frame the simulation copies into next, only used by the simulation
+    private Frame back;
+    // latest frame published and not yet taken by the renderer, or null
+    private final AtomicReference<Frame> published = new AtomicReference<>();
+    // frames the renderer has finished with
+    private final Queue<Frame> free = new ConcurrentLinkedQueue<>();
+    // draws published frames
+    private final Thread renderer;
+    // set once the run has ended, so the renderer stops once it has drawn
+    // the last frame
+    private volatile boolean closed;
+    // number of frames published, and replaced before being drawn
+    private int numPublished;
+    private int numDropped;
+
+    // window and the image it shows, in window mode
+    private JFrame window;
+    private volatile BufferedImage shown;
+
+    /**
+     * Start the renderer, and open the window in window mode
+     *
+     * @param mode     png, or window
+     * @param interval number of ticks between frames
+     * @param scale    width and height of each patch in pixels
+     * @param xPatches number of patches in x direction
+     * @param yPatches number of patches in y direction
+     * @param maxGrain grain shaded fully yellow
+     * @param basename name of PNG files before the tick
+     */
+    public Visualiser(String mode, int interval, int scale, int xPatches,
+                      int yPatches, double maxGrain, String basename) {
+        if (!mode.equals("png") && !mode.equals("window")) {
+            throw new IllegalArgumentException("Unknown visualiser: " + mode);
+        }
+        if (interval < 1 || scale < 1) {
+            throw new IllegalArgumentException("VisualiserInterval and " +
+                    "VisualiserScale must be at least 1");
+        }
+        png = mode.equals("png");
+        if (!png && GraphicsEnvironment.isHeadless()) {
+            throw new IllegalStateException("Visualiser=window needs a " +
+                    "display; use Visualiser=png");
+        }
+        this.interval = interval;
+        this.scale = scale;
+        this.xPatches = xPatches;
+        this.yPatches = yPatches;
+        this.maxGrain = maxGrain;
+        this.basename = basename;
+        // one frame each for the simulation, the swap slot and the renderer
+        back = new Frame(xPatches * yPatches);
+        free.add(new Frame(xPatches * yPatches));
+        free.add(new Frame(xPatches * yPatches));
+        if (!png) {
+            openWindow();
+        }
+        renderer = new Thread(this::render, "visualiser");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    /**
+     * Publish a frame of the simulation, if the tick is a multiple of the
+     * interval.  Called by the simulation between ticks.
+     *
+     * @param simulation simulation to copy the frame from
+     * @param tick       current tick
+     */
+    public void publish(Simulation simulation, int tick) {
+        if (tick % interval != 0) {
+            return;
+        }
+        simulation.copyFrame(back.grain, back.turtles);
+        back.tick = tick;
+        Frame replaced = published.getAndSet(back);
+        numPublished++;
+        if (replaced != null) {
+            numDropped++;
+            back = replaced;
+        } else {
+            // the renderer took the last frame, so one is free or being
+            // drawn, and the other is free
+            back = free.poll();
+        }
+        LockSupport.unpark(renderer);
+    }
+
+    /**
+     * Draw published frames until the run has ended and the last frame has
+     * been drawn
+     */
+    private void render() {
+        while (true) {
+            Frame frame = published.getAndSet(null);
+            if (frame == null) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            BufferedImage image = draw(frame);
+            int tick = frame.tick;
+            free.add(frame);
+            if (png) {
+                File file = new File(String.format("%s-frame-%06d.png",
+                        basename, tick));
+                try {
+                    ImageIO.write(image, "png", file);
+                } catch (IOException e) {
+                    System.err.println("Could not write " + file + ": " + e);
+                }
+            } else {
+                shown = image;
+                SwingUtilities.invokeLater(() -> {
+                    window.setTitle("Wealth Distribution - tick " + tick);
+                    window.repaint();
+                });
+            }
+        }
+    }
+
+    /**
+     * @return image of a frame, north up
+     */
+    private BufferedImage draw(Frame frame) {
+        int maxTurtles = 1;
+        for (int count : frame.turtles) {
+            maxTurtles = Math.max(maxTurtles, count);
+        }
+        int width = xPatches * scale;
+        BufferedImage image = new BufferedImage(width, yPatches * scale,
+                BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                int p = x * yPatches + y;
+                int colour = blend(BACKGROUND, 0xffff00, Math.min(1,
+                        frame.grain[p] / maxGrain));
+                if (frame.turtles[p] > 0) {
+                    // a single turtle is visible however crowded others are
+                    colour = blend(colour, TURTLE_COLOUR, 0.5 + 0.5 *
+                            frame.turtles[p] / maxTurtles);
+                }
+                int row = (yPatches - 1 - y) * scale;
+                for (int dy = 0; dy < scale; dy++) {
+                    int start = (row + dy) * width + x * scale;
+                    Arrays.fill(pixels, start, start + scale,
+                            colour);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return colour a fraction of the way from one colour to another
+     */
+    private static int blend(int from, int to, double fraction) {
+        int colour = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int a = (from >> shift) & 0xff;
+            int b = (to >> shift) & 0xff;
+            colour |= (int) Math.round(a + (b - a) * fraction) << shift;
+        }
+        return colour;
+    }
+
+    /**
+     * Open a window showing the latest frame drawn
+     */
+    private void openWindow() {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                window = new JFrame("Wealth Distribution");
+                window.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+                JPanel panel = new JPanel() {
+                    @Override
+                    protected void paintComponent(Graphics g) {
+                        super.paintComponent(g);
+                        g.drawImage(shown, 0, 0, null);
+                    }
+                };
+                panel.setPreferredSize(new Dimension(xPatches * scale,
+                        yPatches * scale));
+                window.add(panel);
+                window.pack();
+                window.setVisible(true);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Wait for the renderer to draw the last frame published.  A window
+     * stays open until it is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(renderer);
+        try {
+            renderer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Visualiser: " + (numPublished - numDropped) +
+                " frames drawn, " + numDropped + " dropped");
+    }
+
+    /**
+     * The grain and turtles on each patch at a tick
+     */
+    private static class Frame {
+        // grain on each patch, indexed by x * yPatches + y
+        private final double[] grain;
+        // number of turtles on each patch, indexed likewise
+        private final int[] turtles;
+        // tick the frame was copied at
+        private int tick;
+
+        Frame(int numPatches) {
+            grain = new double[numPatches];
+            turtles = new int[numPatches];
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.util.Arrays;
+
+/**
+ * Number of turtles holding each wealth value, kept up to date as turtles'
+ * wealth changes so that the Gini index can be found without collecting and
+ * sorting every turtle's wealth each tick.
+ * Wealth values are non-negative integers, so counts are held in an array
+ * indexed by wealth, which grows as needed, and adding or removing a turtle
+ * takes constant time.  With inheritance, wealth spreads over thousands of
+ * values held by only a few turtles, so the values held are also kept in
+ * ascending order, and the computations walk only those: O(d + k log k)
+ * for d distinct values held and k values newly held since the last
+ * computation, plus O(n) for n turtles where every turtle is replayed.
+ */
+public class WealthHistogram {
+    // number of turtles with each wealth value
+    private int[] counts = new int[64];
+    // wealth values held by some turtle at the last computation, ascending;
+    // values no longer held are dropped at the next computation
+    private int[] held = new int[16];
+    private int numHeld;
+    // values that became held since the last computation, in any order,
+    // possibly repeated
+    private int[] newlyHeld = new int[16];
+    private int numNewlyHeld;
+    // spare buffer the held values are merged into
+    private int[] merged = new int[16];
+    // number of turtles recorded
+    private int size;
+    // total wealth of all turtles recorded
+    private long totalWealth;
+
+    /**
+     * Record a turtle with the given wealth
+     *
+     * @param wealth non-negative wealth of the turtle
+     */
+    public void add(int wealth) {
+        if (wealth < 0) {
+            throw new IllegalArgumentException("Negative wealth: " + wealth);
+        }
+        if (wealth >= counts.length) {
+            counts = Arrays.copyOf(counts,
+                    Math.max(wealth + 1, counts.length * 2));
+        }
+        if (counts[wealth]++ == 0) {
+            if (numNewlyHeld == newlyHeld.length) {
+                newlyHeld = Arrays.copyOf(newlyHeld, numNewlyHeld * 2);
+            }
+            newlyHeld[numNewlyHeld++] = wealth;
+        }
+        size++;
+        totalWealth += wealth;
+    }
+
+    /**
+     * Forget a turtle with the given wealth
+     *
+     * @param wealth wealth the turtle was recorded with
+     */
+    public void remove(int wealth) {
+        if (wealth < 0 || wealth >= counts.length || counts[wealth] == 0) {
+            throw new IllegalArgumentException("No turtle with wealth " +
+                    wealth);
+        }
+        // a value no longer held stays in held until the next computation
+        counts[wealth]--;
+        size--;
+        totalWealth -= wealth;
+    }
+
+    /**
+     * Forget every turtle
+     */
+    public void clear() {
+        updateHeld();
+        for (int v = 0; v < numHeld; v++) {
+            counts[held[v]] = 0;
+        }
+        numHeld = 0;
+        size = 0;
+        totalWealth = 0;
+    }
+
+    /**
+     * Bring the ascending list of values held up to date: sort the values
+     * newly held and merge them in, dropping repeats and values no longer
+     * held
+     */
+    private void updateHeld() {
+        Arrays.sort(newlyHeld, 0, numNewlyHeld);
+        if (merged.length < numHeld + numNewlyHeld) {
+            merged = new int[Math.max(numHeld + numNewlyHeld,
+                    merged.length * 2)];
+        }
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < numHeld || j < numNewlyHeld) {
+            int w;
+            if (j == numNewlyHeld ||
+                    (i < numHeld && held[i] <= newlyHeld[j])) {
+                w = held[i++];
+            } else {
+                w = newlyHeld[j++];
+            }
+            if (counts[w] > 0 && (n == 0 || merged[n - 1] != w)) {
+                merged[n++] = w;
+            }
+        }
+        int[] spare = held;
+        held = merged;
+        merged = spare;
+        numHeld = n;
+        numNewlyHeld = 0;
+    }
+
+    /**
+     * Update a turtle's wealth from one value to another
+     *
+     * @param from wealth the turtle was recorded with
+     * @param to   new non-negative wealth of the turtle
+     */
+    public void move(int from, int to) {
+        if (from != to) {
+            remove(from);
+            add(to);
+        }
+    }
+
+    /**
+     * Compute the Gini index exactly as computing the Lorenz curve of the
+     * sorted wealth and then the Gini index from it, producing the same float
+     * result, but replaying the sorted wealth from the counts.
+     * Takes time proportional to the number of turtles plus the number of
+     * distinct wealth values, as each turtle adds one float.
+     *
+     * @return Gini index, as returned by Simulation.computeGini
+     */
+    public float computeGini() {
+        updateHeld();
+        float giniIndex = 0;
+        float numLorenz = (float) size;
+        float total = (float) (double) totalWealth;
+        long cumulativeWealth = 0;
+        int i = 0;
+        for (int v = 0; v < numHeld; v++) {
+            int w = held[v];
+            for (int c = counts[w]; c > 0; c--) {
+                cumulativeWealth += w;
+                float lorenzPoint = cumulativeWealth / total;
+                giniIndex += (i + 1) / numLorenz - lorenzPoint;
+                i++;
+            }
+        }
+        return giniIndex;
+    }
+
+    /**
+     * Compute the Gini index in closed form, one wealth value at a time,
+     * summing in double precision rather than one float per turtle.
+     * Takes time proportional to the number of distinct wealth values,
+     * however many turtles there are. Agrees with computeGini to within a relative
+     * difference of 1e-5 (at most 2e-6 across the props files), the
+     * difference being float rounding in computeGini.
+     *
+     * @return Gini index, as returned by Simulation.computeGini
+     */
+    public float computeGiniClosedForm() {
+        updateHeld();
+        double n = size;
+        double total = totalWealth;
+        double giniIndex = 0;
+        // number of turtles and their wealth before the current value
+        long before = 0;
+        long cumulativeWealth = 0;
+        for (int v = 0; v < numHeld; v++) {
+            int w = held[v];
+            long c = counts[w];
+            // sum over the c turtles with wealth w, ranked before+1 to
+            // before+c, of (rank / n - cumulative wealth / total wealth)
+            double ranks = c * before + c * (c + 1) / 2.0;
+            double lorenz = c * cumulativeWealth + w * (c * (c + 1) / 2.0);
+            giniIndex += ranks / n - lorenz / total;
+            before += c;
+            cumulativeWealth += c * w;
+        }
+        return (float) giniIndex;
+    }
+
+    /**
+     * Sample the Lorenz curve at evenly spaced shares of the turtles, and
+     * count the turtles in each of a set of wealth bins, in one pass over
+     * the wealth values.  The i-th of n points of the curve is the share of
+     * the total wealth held by the poorest round((i + 1) / n * size)
+     * turtles, so the last point is 1.
+     * Takes time proportional to the number of distinct wealth values plus
+     * the number of points and bins, however many turtles there are.
+     *
+     * @param lorenz   filled with the sampled Lorenz curve
+     * @param binLower lowest wealth in each bin, ascending from 0; a bin
+     *                 ends where the next bin starts, the last has no end
+     * @param bins     filled with the number of turtles in each bin
+     */
+    public void computeDistribution(float[] lorenz, int[] binLower,
+                                    int[] bins) {
+        updateHeld();
+        Arrays.fill(bins, 0);
+        double total = totalWealth;
+        int point = 0;
+        int bin = 0;
+        // number of turtles and their wealth before the current value
+        long before = 0;
+        long cumulativeWealth = 0;
+        for (int v = 0; v < numHeld; v++) {
+            int w = held[v];
+            long c = counts[w];
+            while (bin + 1 < binLower.length && binLower[bin + 1] <= w) {
+                bin++;
+            }
+            bins[bin] += c;
+            // points whose poorest turtles end among those with wealth w
+            while (point < lorenz.length && rank(point, lorenz.length) <=
+                    before + c) {
+                long held = cumulativeWealth +
+                        (rank(point, lorenz.length) - before) * w;
+                lorenz[point] = total == 0 ?
+                        (float) rank(point, lorenz.length) / size :
+                        (float) (held / total);
+                point++;
+            }
+            before += c;
+            cumulativeWealth += c * w;
+        }
+        // when no turtles are recorded, no points have been filled
+        Arrays.fill(lorenz, point, lorenz.length, 0);
+    }
+
+    /**
+     * @return number of the poorest turtles making up point i of n points
+     * of the Lorenz curve
+     */
+    private long rank(int i, int n) {
+        return Math.round((double) (i + 1) / n * size);
+    }
+
+    /**
+     * @return wealth of every turtle recorded, in ascending order
+     */
+    public int[] toSortedArray() {
+        updateHeld();
+        int[] sorted = new int[size];
+        int i = 0;
+        for (int v = 0; v < numHeld; v++) {
+            int w = held[v];
+            for (int c = counts[w]; c > 0; c--) {
+                sorted[i++] = w;
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * @return number of turtles recorded
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return total wealth of all turtles recorded
+     */
+    public long getTotalWealth() {
+        return totalWealth;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * SWEN90004 Assignment 2 - Wealth Distribution
+ * James Sinclair - 1114278, Yujun Yan - 952112, Junkai Xing - 1041973
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Worker process of a {@link Coordinator}: asks the coordinator for runs
+ * one at a time, sending heartbeats while each runs to keep its lease, and
+ * sends back the files the run wrote.  Runs write into a temporary
+ * directory of their own, so a worker never leaves partial output behind.
+ * Launched by the coordinator, or by hand with the coordinator's port.
+ */
+public class Worker {
+    // number of heartbeats sent per lease, so that one lost or late
+    // heartbeat does not lose the lease
+    private static final int HEARTBEATS_PER_LEASE = 3;
+
+    // name of the worker in the coordinator's log and runs.csv
+    private final String name;
+    // messages from the coordinator
+    private final DataInputStream in;
+    // messages to the coordinator, written by the worker and its heartbeats
+    private final DataOutputStream out;
+    // sends heartbeats while a run is in progress
+    private final ScheduledExecutorService heartbeats =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param name   name of the worker
+     * @param socket connection to the coordinator
+     * @throws IOException when the connection fails
+     */
+    public Worker(String name, Socket socket) throws IOException {
+        this.name = name;
+        in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+    }
+
+    /**
+     * Usage: Worker {coordinator host} {coordinator port} [name]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Worker {coordinator host} " +
+                    "{coordinator port} [name]");
+            System.exit(1);
+        }
+        String name = args.length > 2 ? args[2] :
+                "worker-" + ProcessHandle.current().pid();
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            new Worker(name, socket).work();
+        }
+    }
+
+    /**
+     * Run whatever the coordinator hands out until it has no more runs
+     *
+     * @throws IOException when the connection to the coordinator fails
+     */
+    public void work() throws IOException {
+        synchronized (out) {
+            out.writeUTF(Coordinator.HELLO);
+            out.writeUTF(name);
+        }
+        while (true) {
+            synchronized (out) {
+                out.writeUTF(Coordinator.REQUEST);
+                out.flush();
+            }
+            String message = in.readUTF();
+            if (message.equals(Coordinator.FINISHED)) {
+                System.out.println(name + ": no more runs");
+                return;
+            } else if (!message.equals(Coordinator.RUN)) {
+                throw new IOException("Unknown message: " + message);
+            }
+            runOne();
+        }
+    }
+
+    /**
+     * Read a run from the coordinator, run it, and send back its files, or
+     * report that it failed
+     */
+    private void runOne() throws IOException {
+        int id = in.readInt();
+        String propertiesFile = in.readUTF();
+        String runName = in.readUTF();
+        int seed = in.readInt();
+        boolean inheritance = in.readBoolean();
+        Properties properties = new Properties();
+        int numProperties = in.readInt();
+        for (int p = 0; p < numProperties; p++) {
+            properties.setProperty(in.readUTF(), in.readUTF());
+        }
+        long leaseMillis = in.readLong();
+
+        long interval = Math.max(1, leaseMillis / HEARTBEATS_PER_LEASE);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+                () -> sendHeartbeat(id), interval, interval,
+                TimeUnit.MILLISECONDS);
+        Path dir = Files.createTempDirectory("wealth-" + name + "-");
+        try {
+            // output files are named for the run, in the run's directory
+            properties.setProperty("RunName",
+                    dir.resolve(runName).toString());
+            try {
+                Simulation simulation = Simulation.create(propertiesFile,
+                        properties);
+                simulation.setRandomSeed(seed);
+                simulation.setInheritance(inheritance);
+                simulation.setWriteOutput(true);
+                simulation.setup();
+                simulation.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+                heartbeat.cancel(false);
+                synchronized (out) {
+                    out.writeUTF(Coordinator.FAILED);
+                    out.writeInt(id);
+                    out.writeUTF(String.valueOf(e));
+                    out.flush();
+                }
+                return;
+            }
+            sendFiles(dir);
+            heartbeat.cancel(false);
+            synchronized (out) {
+                out.writeUTF(Coordinator.DONE);
+                out.writeInt(id);
+                out.flush();
+            }
+        } finally {
+            heartbeat.cancel(false);
+            deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Tell the coordinator this worker is still running its run
+     */
+    private void sendHeartbeat(int id) {
+        try {
+            synchronized (out) {
+                out.writeUTF(Coordinator.HEARTBEAT);
+                out.writeInt(id);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the worker finds out when it next talks to the coordinator
+        }
+    }
+
+    /**
+     * Send every file a run wrote to the coordinator
+     */
+    private void sendFiles(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.sorted().collect(Collectors.toList());
+        }
+        byte[] buffer = new byte[1 << 16];
+        for (Path file : files) {
+            // hold the connection for the whole file, so heartbeats are not
+            // interleaved with its bytes
+            synchronized (out) {
+                out.writeUTF(Coordinator.FILE);
+                out.writeUTF(file.getFileName().toString());
+                out.writeLong(Files.size(file));
+                try (InputStream data = Files.newInputStream(file)) {
+                    int n;
+                    while ((n = data.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete a run's directory and the files in it
+     */
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (Stream<Path> listing = Files.list(dir)) {
+            for (Path file : listing.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
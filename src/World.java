@@ -5,12 +5,14 @@
 
 import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.List;
 
 /**
- * Singleton class that represents the World, which runs the simulation
+ * Class that represents the World, which runs the simulation
  * and holds all turtles and patches for the wealth distribution simulation.
+ * This is the object engine, where each patch and turtle is an object.
  * Contains entrypoint for the simulation.
  * Based on NetLogo wealth distribution model:
  * Wilensky, U. (1998). NetLogo Wealth Distribution model.
@@ -18,143 +20,53 @@ import java.util.List;
  * Center for Connected Learning and Computer-Based Modeling, Northwestern
  * University, Evanston, IL.
  */
-public class World {
-    // singleton instance
-    private static World instance;
+public class World extends Simulation {
     // whether to output a csv of the initial grain distribution across patches
     private final boolean OUTPUT_GRAIN_DISTRIBUTION = false;
     // whether to print grain state at each tick
-    private final boolean PRINT_GRAIN = false;
-    // whether to output gini coefficient at each tick
-    private final boolean PRINT_GINI = false;
-    // proportion of grain to diffuse during setup of patches
-    private final float GRAIN_DIFFUSION_PROPORTION = 0.25f;
-
-    // whether to implement inheritance feature
-    private boolean inheritance = false;
-    // number of iterations to run simulation for
-    private int maxTicks;
+    private static final boolean PRINT_GRAIN = false;
 
     // turtles (agents) in the world
     private final List<Turtle> turtles = new ArrayList<>();
     // patches (divisions) of the world
     private Patch[][] patches;
-
-    // current values of the lorenz curve
-    private List<Float> lorenz;
-    // historical value of the gini coefficient
-    private final List<Float> gini = new ArrayList<>();
-
-    // properties file used to load run parameters
-    private String propertiesFile = "props/wealth-distrib-default.properties";
-
-    // run parameters
-    // current tick of the world
-    private int tick;
-    // number of patches in x direction
-    private int xPatches;
-    // number of patches in y direction
-    private int yPatches;
-    // number of people (turtles) to seed in the world
-    private int numPeople;
-    // maximum value of metabolism for turtles
-    private int metabolismMax;
-    // maximum number of patches ahead a turtle can see
-    private int maxVision;
-    // minimum turtle life expectancy
-    private int lifeExpectancyMin;
-    // maximum turtle life expectancy
-    private int lifeExpectancyMax;
-    // percentage of land that has maximum grain capacity
-    private int percentBestLand;
-    // quantity of grain that grows each grain interval
-    private int numGrainGrown;
-    // interval of grain growth
-    private int grainGrowthInterval;
-    // random seed value
-    private int randomSeed = 0;
-    // maximum grain any patch can hold
-    private final int MAX_GRAIN = 50;
-
-    // random number generator
-    private Random random;
+    // index of which turtles are on each patch
+    private PatchOccupancy occupancy;
+    // sums of grain ahead of each patch, used by turtles to look for grain
+    private GrainPerception perception;
+    // number of turtles holding each wealth value
+    private WealthHistogram wealthHistogram;
 
     /**
      * Default constructor for World
      */
-    private World() {
-    }
-
-    /**
-     * Read simulation properties from a properties file
-     *
-     * @param propertiesFile to read properties from
-     * @throws IOException when reading properties file
-     */
-    private void setupProperties(String propertiesFile) throws IOException {
-        Properties worldProperties = new Properties();
-        // load properties file
-        try (FileReader inStream = new FileReader(propertiesFile)) {
-            worldProperties.load(inStream);
-        }
-
-        // parse properties from properties file
-        maxTicks = Integer.parseInt(worldProperties.getProperty("MaxTicks"));
-        xPatches = Integer.parseInt(worldProperties.getProperty("XPatches"));
-        yPatches = Integer.parseInt(worldProperties.getProperty("YPatches"));
-        numPeople = Integer.parseInt(worldProperties.getProperty("NumPeople"));
-        maxVision = Integer.parseInt(worldProperties.getProperty("MaxVision"));
-        metabolismMax = Integer.parseInt(worldProperties.getProperty(
-                "MetabolismMax"));
-        lifeExpectancyMin = Integer.parseInt(worldProperties.getProperty(
-                "LifeExpectancyMin"));
-        lifeExpectancyMax = Integer.parseInt(worldProperties.getProperty(
-                "LifeExpectancyMax"));
-        percentBestLand = Integer.parseInt(worldProperties.getProperty(
-                "PercentBestLand"));
-        numGrainGrown = Integer.parseInt(worldProperties.getProperty(
-                "NumGrainGrown"));
-        grainGrowthInterval = Integer.parseInt(worldProperties.getProperty(
-                "GrainGrowthInterval"));
-
-        // initialise random number generator
-        random = new Random(randomSeed);
-
-    }
-
-    /**
-     * @return csv file name for simulation timeseries
-     */
-    public String getCsvFileName() {
-        String csvFilename;
-        File propsFile = new File(propertiesFile);
-        String basename = propsFile.getName().split("\\.")[0];
-        csvFilename = basename + "-seed-" + randomSeed;
-        if (inheritance) {
-            csvFilename += "-inheritance";
-        }
-        csvFilename += ".csv";
-        System.out.println("Output csv: " + csvFilename);
-        return csvFilename;
-    }
-
-    // get singleton instance of World
-    public static World getInstance() {
-        if (instance == null) {
-            instance = new World();
-        }
-        return instance;
+    public World() {
     }
 
     public static void main(String[] args) {
-        // create and setup world
-        World world = World.getInstance();
-
         // setup properties and random seed
         // check if properties file passed as command-line argument
+        String propertiesFile = DEFAULT_PROPERTIES_FILE;
         if (args.length >= 1) {
-            world.setPropertiesFile(args[0]);
+            propertiesFile = args[0];
         }
+
+        // create the engine selected by the properties
+        Simulation world = null;
+        try {
+            // any further arguments are Key=Value overrides of the
+            // properties file, e.g. Engine=array
+            Properties overrides = Simulation.parseOverrides(args,
+                    Math.min(args.length, 3));
+            world = Simulation.create(propertiesFile, overrides);
+        } catch (IOException e) {
+            System.err.println("Failed to read properties file " + propertiesFile);
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
         // check if random seed passed as command-line argument
         if (args.length >= 2) {
             world.setRandomSeed(Integer.parseInt(args[1]));
@@ -165,46 +77,24 @@ public class World {
             world.setInheritance(Boolean.parseBoolean(args[2]));
         }
 
-        world.setup();
+        // write each tick's statistics to output files as the run goes
+        world.setWriteOutput(true);
 
-        // run model
-        System.out.println("Running simulation");
-        int maxTicks = world.getMaxTicks();
-        for (int i = 0; i < maxTicks; i++) {
-            try {
-                world.go();
-            } catch (Exception e) {
-                e.printStackTrace();
-                System.exit(1);
-            }
-
-            if (world.PRINT_GRAIN) {
-                world.printGrain();
-            }
+        try {
+            world.setup();
+        } catch (IOException e) {
+            System.err.println("Failed to set up simulation: " +
+                    e.getMessage());
+            System.exit(1);
         }
-        // write results to csv
-        System.out.println("Writing csv");
-        world.writeToCsv();
-    }
-
-    private int getMaxTicks() {
-        return maxTicks;
-    }
 
-    /**
-     * Write "tick,gini" for each tick to a csv file
-     */
-    private void writeToCsv() {
-        String csvFilename = getCsvFileName();
-        try (PrintWriter pw = new PrintWriter(new FileWriter(csvFilename))) {
-            // print header
-            pw.println("tick,gini");
-            // print each line
-            for (int g = 0; g < gini.size(); g++) {
-                pw.println(String.format("%s,%s", g, gini.get(g)));
-            }
-        } catch (IOException e) {
+        // run model
+        System.out.println("Running simulation");
+        try {
+            world.run();
+        } catch (Exception e) {
             e.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -221,100 +111,30 @@ public class World {
     }
 
     /**
-     * Setup world for wealth distribution sim
-     */
-    public void setup() {
-        System.out.println("Reading properties file " + propertiesFile);
-        try {
-            setupProperties(propertiesFile);
-        } catch (IOException e) {
-            System.err.println("Failed to read properties file " + propertiesFile);
-            System.exit(1);
-        }
-        // set up patches
-        setupPatches();
-        // set up turtles
-        setupTurtles();
-        // initialise lorenz and gini
-        updateLorenzAndGini();
-    }
-
-    /**
-     * Creates patches and initialises them with grain.
+     * Creates patches and initialises them with grain, seeded and diffused
+     * by Simulation.setupInitialGrain.
      */
-    private void setupPatches() {
+    @Override
+    protected void setupPatches() {
         // create array of patches
         patches = new Patch[xPatches][yPatches];
 
-        // initialise patches
-        List<Patch> maxGrainPatches = new ArrayList<>();
+        double[] initialGrain = setupInitialGrain();
         for (int x = 0; x < xPatches; x++) {
-            patches[x] = new Patch[yPatches];
             for (int y = 0; y < yPatches; y++) {
-                // determine how much grain to seed patch with
-                int patchGrain = determinePatchGrain();
-                // create the new patch
-                patches[x][y] = new Patch(x, y, patchGrain, numGrainGrown);
-                // store patches with max grain for convenience later
-                if (patchGrain != 0) {
-                    maxGrainPatches.add(patches[x][y]);
-                }
-            }
-        }
-
-        // spread grain around.  put some back into best land (diffuse)
-        // diffuse 5 times
-        for (int i = 0; i < 5; i++) {
-            for (Patch p : maxGrainPatches) {
-                // reset to initial grain value
-                p.setGrainHere(p.getMaxGrainHere());
-                diffuseGrain(p, GRAIN_DIFFUSION_PROPORTION);
-            }
-        }
-
-        // diffuse 10 times across all patches
-        for (int i = 0; i < 10; i++) {
-            for (int x = 0; x < xPatches; x++) {
-                for (int y = 0; y < yPatches; y++) {
-                    diffuseGrain(getPatch(x, y), GRAIN_DIFFUSION_PROPORTION);
-                }
-            }
-        }
-
-        // update max grain
-        for (int x = 0; x < xPatches; x++) {
-            for (int y = 0; y < yPatches; y++) {
-                Patch p = getPatch(x, y);
-                p.setGrainHere(Math.floor(p.getGrainHere()));
-                p.setMaxGrainHere(p.getGrainHere());
+                patches[x][y] = new Patch(this, x, y,
+                        (int) initialGrain[x * yPatches + y], numGrainGrown);
             }
         }
 
         // output a csv of initial grain distribution of patches
         if (OUTPUT_GRAIN_DISTRIBUTION) {
-            writePatchCsv();
+            PatchCache.writeCsv(initialGrain,
+                    String.format("patch-default-seed-%d.csv", randomSeed));
         }
-    }
 
-    /**
-     * Write a csv of all patches in the world using fields "grain-here,
-     * max-grain-here".
-     */
-    private void writePatchCsv() {
-        String csv = String.format("patch-default-seed-%d.csv", randomSeed);
-        try (PrintWriter pw = new PrintWriter(new FileWriter(csv))) {
-            // print header
-            pw.println("grain-here,max-grain-here");
-            // print each line
-            for (int x = 0; x < xPatches; x++) {
-                for (int y = 0; y < yPatches; y++) {
-                    Patch patch = patches[x][y];
-                    pw.println(patch.getGrainHere() + "," + patch.getMaxGrainHere());
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        perception = new GrainPerception(xPatches, yPatches);
+        updatePerception();
     }
 
     /**
@@ -344,14 +164,67 @@ public class World {
     /**
      * Set up the initial values for the turtle variables
      */
-    private void setupTurtles() {
+    @Override
+    protected void setupTurtles() {
+        // turtle ids index the list, so start from an empty world
+        turtles.clear();
+        occupancy = new PatchOccupancy(xPatches, yPatches, numPeople);
+        wealthHistogram = new WealthHistogram();
         for (int i = 0; i < numPeople; i++) {
             // determine location of new turtle
             int x = random.nextInt(xPatches);
             int y = random.nextInt(yPatches);
             // create new turtle and add to the list of turtles
-            Turtle turtle = new Turtle(x, y);
+            Turtle turtle = new Turtle(this, i, x, y);
+            turtles.add(turtle);
+            occupancy.add(i, x, y);
+        }
+    }
+
+    /**
+     * Write the grain of each patch and the state of each turtle to a
+     * checkpoint
+     */
+    @Override
+    protected void writeState(CheckpointOutput out) {
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                out.putDouble(patches[x][y].getGrainHere());
+                out.putDouble(patches[x][y].getMaxGrainHere());
+            }
+        }
+        out.putInt(turtles.size());
+        for (Turtle t : turtles) {
+            t.writeState(out);
+        }
+    }
+
+    /**
+     * Restore patches and turtles from a checkpoint
+     */
+    @Override
+    protected void readState(ByteBuffer in) {
+        patches = new Patch[xPatches][yPatches];
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                Patch p = new Patch(this, x, y, 0, numGrainGrown);
+                double grain = in.getDouble();
+                p.setMaxGrainHere(in.getDouble());
+                p.setGrainHere(grain);
+                patches[x][y] = p;
+            }
+        }
+        perception = new GrainPerception(xPatches, yPatches);
+        updatePerception();
+
+        turtles.clear();
+        int numTurtles = in.getInt();
+        occupancy = new PatchOccupancy(xPatches, yPatches, numTurtles);
+        wealthHistogram = new WealthHistogram();
+        for (int i = 0; i < numTurtles; i++) {
+            Turtle turtle = new Turtle(this, i, in);
             turtles.add(turtle);
+            occupancy.add(i, turtle.getX(), turtle.getY());
         }
     }
 
@@ -365,124 +238,132 @@ public class World {
     public List<Turtle> getTurtlesOnPatch(int x, int y) {
         List<Turtle> turtleList = new ArrayList<>();
 
-        for (Turtle turtle : turtles) {
-            // check if turtle is on the patch
-            if (turtle.getX() == x && turtle.getY() == y) {
-                turtleList.add(turtle);
-            }
+        for (int id = occupancy.first(x, y); id != PatchOccupancy.NONE;
+             id = occupancy.next(id)) {
+            turtleList.add(turtles.get(id));
         }
 
         return turtleList;
     }
 
+    /**
+     * @return sums of grain ahead of each patch as of the end of the last
+     * tick
+     */
+    public GrainPerception getPerception() {
+        return perception;
+    }
+
+    /**
+     * @return index of which turtles are on each patch
+     */
+    public PatchOccupancy getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * @param id unique id of the turtle
+     * @return turtle with the given id
+     */
+    public Turtle getTurtle(int id) {
+        return turtles.get(id);
+    }
+
     /**
      * Run one step of the simulation
      */
-    private void go() throws Exception {
-        tick++;
-        // make turtles turn towards grain
-        for (Turtle t : turtles) {
-            t.turnTowardsGrain();
-        }
+    @Override
+    protected void go() throws Exception {
+        super.go();
 
-        // harvest grain
-        for (int x = 0; x < xPatches; x++) {
-            for (int y = 0; y < yPatches; y++) {
-                patches[x][y].harvest();
-            }
+        if (PRINT_GRAIN) {
+            printGrain();
         }
+    }
 
-        // run each turtle
-        for (Turtle t : turtles) {
-            t.moveEatAgeDie();
-        }
+    /**
+     * Make turtles turn towards grain. Each turtle only reads grain and sets
+     * its own heading, so turtles turn in parallel
+     */
+    @Override
+    protected void turnTowardsGrain() {
+        executor.forEach(turtles.size(), i -> turtles.get(i)
+                .turnTowardsGrain());
+    }
 
-        // grow grain on patches if necessary
-        if (tick % grainGrowthInterval == 0) {
-            for (int x = 0; x < xPatches; x++) {
-                for (int y = 0; y < yPatches; y++) {
-                    patches[x][y].growGrain();
-                }
+    /**
+     * Harvest grain. Each turtle is on exactly one patch, so columns of
+     * patches harvest in parallel without sharing any turtle
+     */
+    @Override
+    protected void harvest() {
+        executor.forEach(xPatches, x -> {
+            for (int y = 0; y < yPatches; y++) {
+                patches[x][y].harvest();
             }
-        }
-
-        // update statistics for each run
-        updateLorenzAndGini();
+        });
     }
 
     /**
-     * Update the Lorenz curve and Gini coefficient
+     * Run each turtle. With a random stream per turtle, turtles are
+     * independent and run in parallel; otherwise they run in order, as
+     * rebirth draws from the shared random number generator
      */
-    private void updateLorenzAndGini() {
-        // determine wealth of each turtle
-        List<Integer> wealth = new ArrayList<>();
-        for (Turtle turtle : turtles) {
-            wealth.add(turtle.getWealth());
+    @Override
+    protected void moveEatAgeDie() {
+        if (splitStreams) {
+            executor.forEach(turtles.size(), i -> turtles.get(i)
+                    .moveEatAgeDie());
+        } else {
+            for (Turtle t : turtles) {
+                t.moveEatAgeDie();
+            }
         }
-
-        // lorenz points
-        lorenz = computeLorenz(wealth);
-
-        // gini
-        float currentGini = computeGini(lorenz);
-        if (PRINT_GINI) {
-            System.out.println("Tick: " + tick + ", Gini index: " + currentGini);
+        // record where each turtle moved to and its new wealth
+        for (Turtle t : turtles) {
+            t.recordMove();
         }
-        gini.add(currentGini);
     }
 
-    protected List<Float> computeLorenz(List<Integer> wealth) {
-        // sort wealth ascending
-        Collections.sort(wealth);
-
-        // calculate total wealth
-        double totalWealth = wealth.stream()
-                .mapToDouble(w -> w)
-                .sum();
-        List<Float> lor = new ArrayList<>();
-
-        // compute Lorenz points
-        int cumulativeWealth = 0;
-        for (int w : wealth) {
-            cumulativeWealth += w;
-            float lorenzPoint = cumulativeWealth / (float) totalWealth;
-            lor.add(lorenzPoint);
-        }
-        return lor;
+    /**
+     * Grow grain on every patch
+     */
+    @Override
+    protected void growGrain() {
+        executor.forEach(xPatches, x -> {
+            for (int y = 0; y < yPatches; y++) {
+                patches[x][y].growGrain();
+            }
+        });
     }
 
     /**
-     * Compute the Gini index from a set of Lorenz points
-     *
-     * @param lorenz list of values comprising the lorenz curve
-     * @return Gini index corresponding to lorenz curve
+     * Sum the grain left after harvest and growth, for next tick
      */
-    protected float computeGini(List<Float> lorenz) {
-        float giniIndex = 0;
-        float numLorenz = (float) lorenz.size();
-        for (int i = 0; i < lorenz.size(); i++) {
-            giniIndex += (i + 1) / numLorenz - lorenz.get(i);
-        }
-        return giniIndex;
+    @Override
+    protected void updatePerception() {
+        perception.update(patches, executor);
     }
 
     /**
-     * Determine how much grain each patch should be seeded with
+     * @return histogram of the current wealth of each turtle
      */
-    private int determinePatchGrain() {
-        int patchGrain = 0;
-        // check if this is best land
-        if (random.nextFloat() <= (percentBestLand / 100.0)) {
-            patchGrain = MAX_GRAIN;
-        }
-        return patchGrain;
+    @Override
+    public WealthHistogram getWealthHistogram() {
+        return wealthHistogram;
     }
 
     /**
-     * @return current tick of simulation
+     * Copy the grain and number of turtles on each patch
      */
-    public int getTick() {
-        return tick;
+    @Override
+    protected void copyFrame(double[] grain, int[] turtles) {
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                grain[x * yPatches + y] = patches[x][y].getGrainHere();
+            }
+        }
+        occupancy.copyCounts(turtles, 0, yPatches);
     }
 
     /**
@@ -498,39 +379,6 @@ public class World {
         return patches[wrappedX][wrappedY];
     }
 
-    /**
-     * wrap v between 0 and (bound-1)
-     *
-     * @param v     value to wrap
-     * @param bound maximum bound
-     * @return wrapped value
-     */
-    private int wrap(int v, int bound) {
-        int max = bound - 1;
-        if (v > max) {
-            v = v % max - 1;
-        } else if (v < 0) {
-            v = bound + v;
-        }
-        return v;
-    }
-
-    public int getMaxVision() {
-        return maxVision;
-    }
-
-    public int getMetabolismMax() {
-        return metabolismMax;
-    }
-
-    public int getLifeExpectancyMin() {
-        return lifeExpectancyMin;
-    }
-
-    public int getLifeExpectancyMax() {
-        return lifeExpectancyMax;
-    }
-
     /**
      * Get patches a particular distance from centre patch in a particular
      * heading.  Note: result is unsorted by distance.
@@ -603,10 +451,6 @@ public class World {
         return neighbours;
     }
 
-    public Random getRandom() {
-        return random;
-    }
-
     /**
      * Get the location of the next patch by moving from (centreX, centreY) in
      * the direction heading.
@@ -638,24 +482,4 @@ public class World {
         // return corresponding point
         return new Point(newCentreX, newCentreY);
     }
-
-    private void setRandomSeed(int randomSeed) {
-        this.randomSeed = randomSeed;
-    }
-
-    private void setPropertiesFile(String propertiesFile) {
-        this.propertiesFile = propertiesFile;
-    }
-
-    public boolean getInheritance() {
-        return inheritance;
-    }
-
-    private void setInheritance(boolean inheritance) {
-        this.inheritance = inheritance;
-    }
-
-    public int getMaxGrain() {
-        return MAX_GRAIN;
-    }
-}
\ No newline at end of file
+}
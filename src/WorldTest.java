@@ -5,10 +5,22 @@
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,8 +31,8 @@ class WorldTest {
     World world;
 
     @BeforeEach
-    void setUp() {
-        world = World.getInstance();
+    void setUp() throws IOException {
+        world = new World();
         world.setup();
     }
 
@@ -207,6 +219,132 @@ class WorldTest {
         }
     }
 
+    /**
+     * test DiffusionKernel's sequential pass matches World.diffuseGrain patch
+     * by patch, and its simultaneous pass shares the grain each patch held
+     * before the pass
+     */
+    @Test
+    void diffusionKernel() {
+        int xPatches = world.xPatches;
+        int yPatches = world.yPatches;
+        double[] grain = new double[xPatches * yPatches];
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                grain[x * yPatches + y] = world.getPatch(x, y).getGrainHere();
+            }
+        }
+        new DiffusionKernel(xPatches, yPatches, world::wrap,
+                new TickExecutor(1)).diffuseSequential(grain, 0.25f);
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                world.diffuseGrain(world.getPatch(x, y), 0.25f);
+            }
+        }
+        for (int x = 0; x < xPatches; x++) {
+            for (int y = 0; y < yPatches; y++) {
+                assertEquals(world.getPatch(x, y).getGrainHere(),
+                        grain[x * yPatches + y]);
+            }
+        }
+
+        // 80 grain on (0,0) of a 5x5 torus, shared with its 8 neighbours
+        TickExecutor executor = new TickExecutor(3);
+        DiffusionKernel kernel = new DiffusionKernel(5, 5, world::wrap,
+                executor);
+        double[] spike = new double[25];
+        spike[0] = 80;
+        double[] diffused = kernel.diffuseSimultaneous(spike, 0.25f);
+        executor.shutdown();
+        assertEquals(60, diffused[0]);
+        for (int p : new int[]{1, 4, 5, 6, 9, 20, 21, 24}) {
+            assertEquals(2.5, diffused[p]);
+        }
+        assertEquals(80, Arrays.stream(diffused).sum());
+    }
+
+    /**
+     * test TickProfiler.Histogram records values to within 1/64 of
+     * themselves, and small values exactly
+     */
+    @Test
+    void profilerHistogram() {
+        TickProfiler.Histogram histogram = new TickProfiler.Histogram();
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500.0, histogram.getMean());
+        assertEquals(1000000, histogram.getMax());
+        for (double p : new double[]{1, 50, 90, 99}) {
+            double expected = p * 10000;
+            assertEquals(expected, histogram.getValueAtPercentile(p),
+                    expected / 64);
+        }
+
+        TickProfiler.Histogram small = new TickProfiler.Histogram();
+        small.record(3);
+        small.record(7);
+        assertEquals(3, small.getValueAtPercentile(50));
+        assertEquals(7, small.getValueAtPercentile(100));
+    }
+
+    /**
+     * test ConvergenceDetector waits for two full windows, ignores a trend,
+     * and detects a series alternating within a stationary band
+     */
+    @Test
+    void convergenceDetector() {
+        ConvergenceDetector detector = new ConvergenceDetector(10, 0.01);
+        // rising steadily: consecutive windows' means differ by 10%
+        for (int t = 0; t < 40; t++) {
+            detector.record(t, 100 + t);
+        }
+        assertFalse(detector.isConverged());
+        // alternating 99, 101: converged once two windows are stationary
+        for (int t = 40; t < 60; t++) {
+            detector.record(t, t % 2 == 0 ? 99 : 101);
+            assertEquals(t >= 59, detector.isConverged());
+        }
+        assertEquals(59, detector.getConvergedTick());
+        assertEquals(100, detector.getMean(), 1e-9);
+    }
+
+    /**
+     * Check the sampled Lorenz curve and log-binned histogram agree with
+     * the full Lorenz curve and each turtle's wealth
+     */
+    @Test
+    void distributionSnapshot() {
+        WealthHistogram histogram = new WealthHistogram();
+        Random random = new Random(7);
+        List<Integer> wealth = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int w = random.nextInt(10) == 0 ? 0 : random.nextInt(5000);
+            histogram.add(w);
+            wealth.add(w);
+        }
+        float[] lorenz = new float[100];
+        int[] binLower = DistributionSnapshots.binLowerBounds(2);
+        int[] bins = new int[binLower.length];
+        histogram.computeDistribution(lorenz, binLower, bins);
+
+        // 1000 turtles: point i holds the poorest 10 * (i + 1)
+        List<Float> full = world.computeLorenz(wealth);
+        for (int i = 0; i < lorenz.length; i++) {
+            assertEquals(full.get(10 * (i + 1) - 1), lorenz[i], 1e-6);
+        }
+        int[] expected = new int[bins.length];
+        for (int w : wealth) {
+            int b = binLower.length - 1;
+            while (binLower[b] > w) {
+                b--;
+            }
+            expected[b]++;
+        }
+        assertArrayEquals(expected, bins);
+    }
+
     /**
      * Check Lorenz is computed correctly
      */
@@ -236,4 +374,583 @@ class WorldTest {
         float gini = world.computeGini(lor);
         assertEquals(0.29487, gini, 0.001);
     }
-}
\ No newline at end of file
+
+    /**
+     * Check World.getTurtlesOnPatch finds every turtle exactly once, on the
+     * patch it is standing on
+     */
+    @Test
+    void getTurtlesOnPatch() {
+        int found = 0;
+        for (int x = 0; x < 51; x++) {
+            for (int y = 0; y < 51; y++) {
+                for (Turtle t : world.getTurtlesOnPatch(x, y)) {
+                    assertEquals(x, t.getX());
+                    assertEquals(y, t.getY());
+                    found++;
+                }
+            }
+        }
+        // default properties seed 250 turtles
+        assertEquals(250, found);
+    }
+
+    /**
+     * Check GrainPerception agrees with summing World.getHeadingPatches in
+     * every heading, including around the edges of the map
+     */
+    @Test
+    void grainAhead() {
+        GrainPerception perception = world.getPerception();
+        int[][] points = {{0, 0}, {10, 27}, {50, 50}, {2, 49}, {49, 1}};
+        for (int[] point : points) {
+            for (Heading h : Heading.values()) {
+                for (int distance = 0; distance <= 15; distance++) {
+                    int expected = 0;
+                    for (Patch p : world.getHeadingPatches(point[0], point[1],
+                            h, distance)) {
+                        expected += (int) p.getGrainHere();
+                    }
+                    assertEquals(expected, perception.grainAhead(point[0],
+                            point[1], h, distance));
+                }
+            }
+        }
+    }
+
+    /**
+     * Check WealthHistogram gives the same Gini index as World.computeGini,
+     * exactly, and in closed form to within its documented tolerance
+     */
+    @Test
+    void histogramGini() {
+        int[] values = {62, 16, 0, 16, 250, 3, 3, 3, 41};
+        List<Integer> wealth = new ArrayList<>();
+        WealthHistogram histogram = new WealthHistogram();
+        for (int w : values) {
+            wealth.add(w);
+            histogram.add(w);
+        }
+        // move one turtle from 250 to 7
+        histogram.move(250, 7);
+        wealth.remove(Integer.valueOf(250));
+        wealth.add(7);
+
+        float gini = world.computeGini(world.computeLorenz(wealth));
+        assertEquals(gini, histogram.computeGini());
+        assertEquals(gini, histogram.computeGiniClosedForm(), 1e-5 * gini);
+
+        // between computations, empty 62 and 41, hold 41 again, and hold
+        // new values above and below the rest
+        histogram.move(62, 9000);
+        histogram.move(41, 1);
+        histogram.move(1, 41);
+        histogram.move(0, 41);
+        wealth.remove(Integer.valueOf(62));
+        wealth.remove(Integer.valueOf(0));
+        wealth.add(9000);
+        wealth.add(41);
+        wealth.sort(null);
+        gini = world.computeGini(world.computeLorenz(wealth));
+        assertEquals(gini, histogram.computeGini());
+        assertArrayEquals(wealth.stream().mapToInt(Integer::intValue)
+                .toArray(), histogram.toSortedArray());
+
+        histogram.clear();
+        assertEquals(0, histogram.getSize());
+        assertEquals(0, histogram.toSortedArray().length);
+        histogram.add(5);
+        assertArrayEquals(new int[]{5}, histogram.toSortedArray());
+    }
+
+    /**
+     * test the tiled engine produces the same gini index each tick as the
+     * object engine with split random streams, for tiles that do not divide
+     * the world evenly and a halo wider than the tiles
+     */
+    @Test
+    void tiledWorld() throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("RandomStreams", "split");
+        overrides.setProperty("MaxTicks", "50");
+        List<Float> expectedGini = runGini(overrides, 0, false);
+        overrides.setProperty("Engine", "tiled");
+        overrides.setProperty("TileSize", "4");
+        overrides.setProperty("Threads", "2");
+        List<Float> tiledGini = runGini(overrides, 0, false);
+        assertEquals(51, expectedGini.size());
+        assertEquals(expectedGini, tiledGini);
+    }
+
+    /**
+     * test every engine produces the same gini index each tick on a small,
+     * non-square world, with and without inheritance: object, array and
+     * offheap with the shared random number generator, and those and tiled
+     * with split random streams
+     */
+    @Test
+    void engineEquivalence() throws Exception {
+        String[][] engines = {{"object", "array", "offheap"},
+                {"object", "array", "offheap", "tiled"}};
+        String[] streams = {"legacy", "split"};
+        for (int s = 0; s < streams.length; s++) {
+            for (boolean inheritance : new boolean[]{false, true}) {
+                List<Float> expected = null;
+                for (String engine : engines[s]) {
+                    Properties overrides = new Properties();
+                    overrides.setProperty("Engine", engine);
+                    overrides.setProperty("RandomStreams", streams[s]);
+                    overrides.setProperty("XPatches", "23");
+                    overrides.setProperty("YPatches", "17");
+                    overrides.setProperty("NumPeople", "80");
+                    overrides.setProperty("MaxTicks", "150");
+                    overrides.setProperty("TileSize", "6");
+                    List<Float> gini = runGini(overrides, 3, inheritance);
+                    if (expected == null) {
+                        assertEquals(151, gini.size());
+                        expected = gini;
+                    } else {
+                        assertEquals(expected, gini, engine + " with " +
+                                streams[s] + " streams, inheritance " +
+                                inheritance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * test every engine copies the same frame for the visualiser: the grain
+     * and number of turtles on each patch, at setup and mid-run
+     */
+    @Test
+    void visualiserFrames() throws Exception {
+        int numPatches = 23 * 17;
+        double[][] expectedGrain = null;
+        int[][] expectedTurtles = null;
+        for (String engine : new String[]{"object", "array", "offheap",
+                "tiled"}) {
+            Properties overrides = new Properties();
+            overrides.setProperty("Engine", engine);
+            overrides.setProperty("RandomStreams", "split");
+            overrides.setProperty("XPatches", "23");
+            overrides.setProperty("YPatches", "17");
+            overrides.setProperty("NumPeople", "80");
+            overrides.setProperty("MaxTicks", "30");
+            overrides.setProperty("TileSize", "6");
+            Simulation simulation = Simulation.create(
+                    Simulation.DEFAULT_PROPERTIES_FILE, overrides);
+            double[][] grain = new double[2][numPatches];
+            int[][] turtles = new int[2][numPatches];
+            simulation.addSink((tick, g) -> {
+                if (tick == 0 || tick == 30) {
+                    simulation.copyFrame(grain[tick / 30], turtles[tick / 30]);
+                }
+            });
+            runGini(simulation, 0, false);
+            assertEquals(80, Arrays.stream(turtles[0]).sum());
+            assertEquals(80, Arrays.stream(turtles[1]).sum());
+            if (expectedGrain == null) {
+                expectedGrain = grain;
+                expectedTurtles = turtles;
+            } else {
+                for (int f = 0; f < 2; f++) {
+                    assertArrayEquals(expectedGrain[f], grain[f], engine);
+                    assertArrayEquals(expectedTurtles[f], turtles[f], engine);
+                }
+            }
+        }
+        assertFalse(Arrays.equals(expectedGrain[0], expectedGrain[1]));
+    }
+
+    /**
+     * test each replicate of an ensemble produces the same gini index each
+     * tick as running its seed on its own, with the last replicate stopping
+     * early
+     */
+    @Test
+    void ensemble() throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("Engine", "array");
+        overrides.setProperty("MaxTicks", "50");
+        List<List<Float>> expectedGini = new ArrayList<>();
+        List<List<Float>> ensembleGini = new ArrayList<>();
+        List<Simulation> replicates = new ArrayList<>();
+        for (int seed = 0; seed < 3; seed++) {
+            if (seed == 2) {
+                overrides.setProperty("MaxTicks", "20");
+            }
+            Simulation replicate = Simulation.create(
+                    Simulation.DEFAULT_PROPERTIES_FILE, overrides);
+            List<Float> replicateGini = new ArrayList<>();
+            replicate.setRandomSeed(seed);
+            replicate.addSink((tick, g) -> replicateGini.add(g));
+            expectedGini.add(runGini(overrides, seed, false));
+            ensembleGini.add(replicateGini);
+            replicates.add(replicate);
+        }
+        Ensemble ensemble = new Ensemble(replicates);
+        ensemble.setup();
+        ensemble.run();
+        assertEquals(21, expectedGini.get(2).size());
+        assertEquals(expectedGini, ensembleGini);
+    }
+
+    /**
+     * test binary output reads back as the gini index of each tick, with
+     * and without delta encoding, and properties with characters that need
+     * escaping read back unchanged
+     */
+    @Test
+    void binaryRoundTrip(@TempDir Path directory) throws Exception {
+        float[] gini = {33.735527f, 35.059406f, 0f, 35.05941f, 12.5f};
+        for (boolean delta : new boolean[]{false, true}) {
+            Path file = directory.resolve("run-" + delta + ".bin");
+            Properties properties = new Properties();
+            properties.setProperty("NumPeople", "250");
+            properties.setProperty("PatchCache", "C:\\cache dir\\\u00e9t\u00e9 \u4e16");
+            properties.setProperty("Note", "a=b: c\\n");
+            try (BinarySink sink = new BinarySink(file, properties, 7, true,
+                    "abc123", delta, 2)) {
+                for (int tick = 0; tick < gini.length; tick++) {
+                    sink.record(tick, gini[tick]);
+                }
+            }
+            BinaryResultReader reader = new BinaryResultReader(file);
+            assertArrayEquals(gini, reader.getGini());
+            assertEquals(7, reader.getSeed());
+            assertTrue(reader.getInheritance());
+            assertEquals("abc123", reader.getCommit());
+            assertEquals(properties, reader.getProperties());
+        }
+    }
+
+    /**
+     * test runs summarised across seeds out of order, with one failed,
+     * give the mean, variance and median of those that finished
+     */
+    @Test
+    void seedAggregator() {
+        SeedAggregator summary = new SeedAggregator(10, new double[]{0.5});
+        summary.add(12, new float[]{3, 30});
+        summary.skip(11);
+        assertEquals(0, summary.getCount(0));
+        summary.add(10, new float[]{1, 10});
+        summary.add(13, new float[]{8, 20});
+
+        assertEquals(3, summary.getCount(1));
+        assertEquals(4, summary.getMean(0), 1e-12);
+        assertEquals(13, summary.getVariance(0), 1e-12);
+        assertEquals(3, summary.getQuantile(0, 0), 1e-12);
+        assertEquals(20, summary.getQuantile(1, 0), 1e-12);
+    }
+
+    /**
+     * test the telemetry endpoint serves the counts of runs, and the
+     * progress of each worker and active run, as JSON
+     */
+    @Test
+    void telemetryStatus() throws Exception {
+        BatchTelemetry telemetry = new BatchTelemetry(0);
+        try {
+            telemetry.queued(3);
+            BatchTelemetry.RunProgress running = telemetry.started("run\"a");
+            running.record(0, 0.25f);
+            running.record(1, 0.5f);
+            BatchTelemetry.RunProgress failing = telemetry.started("run-b");
+            failing.record(0, 0.75f);
+            telemetry.finished(failing, false);
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + telemetry.getPort() +
+                            BatchTelemetry.PATH).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("application/json",
+                    connection.getContentType());
+            String json;
+            try (InputStream in = connection.getInputStream()) {
+                json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(json.startsWith("{\"uptimeSeconds\":"), json);
+            assertTrue(json.contains("\"runsQueued\":1,\"runsActive\":1," +
+                    "\"runsCompleted\":0,\"runsFailed\":1,"), json);
+            assertTrue(json.contains("\"workers\":[{\"worker\":\"" +
+                    Thread.currentThread().getName() + "\",\"ticks\":3,"),
+                    json);
+            assertTrue(json.contains("\"runs\":[{\"run\":\"run\\\"a\"," +
+                    "\"worker\":\"" + Thread.currentThread().getName() +
+                    "\",\"tick\":1,\"gini\":0.5,"), json);
+            assertTrue(json.endsWith("}]}"), json);
+        } finally {
+            telemetry.stop();
+        }
+    }
+
+    /**
+     * test a run whose patches come from the patch cache reproduces the run
+     * without a cache exactly, as the world's random number generator
+     * continues from where setting up the patches left it
+     */
+    @Test
+    void patchCacheHit(@TempDir Path directory) throws Exception {
+        for (String engine : new String[]{"object", "array"}) {
+            Properties overrides = new Properties();
+            overrides.setProperty("Engine", engine);
+            overrides.setProperty("MaxTicks", "100");
+            List<Float> uncached = runGini(overrides, 0, false);
+            overrides.setProperty("PatchCache", directory.toString());
+            List<Float> stored = runGini(overrides, 0, false);
+            assertEquals(1, directory.toFile().list().length);
+            List<Float> loaded = runGini(overrides, 0, false);
+            assertEquals(101, uncached.size());
+            assertEquals(uncached, stored);
+            assertEquals(uncached, loaded);
+        }
+    }
+
+    /**
+     * Run the default properties file with overrides
+     *
+     * @return gini index of each tick
+     */
+    private static List<Float> runGini(Properties overrides, int seed,
+                                       boolean inheritance) throws Exception {
+        return runGini(Simulation.create(Simulation.DEFAULT_PROPERTIES_FILE,
+                overrides), seed, inheritance);
+    }
+
+    /**
+     * Set up and run a simulation with a seed and inheritance flag
+     *
+     * @return gini index of each tick
+     */
+    private static List<Float> runGini(Simulation simulation, int seed,
+                                       boolean inheritance) throws Exception {
+        simulation.setRandomSeed(seed);
+        simulation.setInheritance(inheritance);
+        List<Float> gini = new ArrayList<>();
+        simulation.addSink((tick, g) -> gini.add(g));
+        simulation.setup();
+        simulation.run();
+        return gini;
+    }
+
+    /**
+     * test sweep values expand lists and from:to[:step] ranges, and reject
+     * a step that is not positive
+     */
+    @Test
+    void sweepExpand() {
+        assertEquals(Arrays.asList("1", "3", "5", "7", "10", "11", "12"),
+                Sweep.expand("1, 3:7:2, 10:12"));
+        assertEquals(Arrays.asList("5", "8"), Sweep.expand("5:9:3"));
+        assertEquals(Arrays.asList("0.5", "true"), Sweep.expand("0.5,true"));
+        assertThrows(IllegalArgumentException.class, () ->
+                Sweep.expand("1:5:0"));
+    }
+
+    /**
+     * test a sweep runs the Cartesian product of its values, properties
+     * joined by + changing together, the last key varying fastest, with
+     * experiments named and listed in the manifest in order
+     */
+    @Test
+    void sweepExperiments(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("land.sweep");
+        Files.write(file, Arrays.asList(
+                "Seeds=2:4",
+                "Inheritance=false,true",
+                "PercentBestLand=5:25:10",
+                "LifeExpectancyMin+LifeExpectancyMax=1/83, 50/100"));
+        Sweep sweep = new Sweep(file.toString());
+        List<Properties> experiments = sweep.getExperiments();
+        assertEquals(6, experiments.size());
+        String[][] expected = {{"1", "83", "5"}, {"1", "83", "15"},
+                {"1", "83", "25"}, {"50", "100", "5"}, {"50", "100", "15"},
+                {"50", "100", "25"}};
+        for (int e = 0; e < expected.length; e++) {
+            Properties experiment = experiments.get(e);
+            assertEquals("land-" + e, experiment.getProperty("RunName"));
+            assertEquals(expected[e][0],
+                    experiment.getProperty("LifeExpectancyMin"));
+            assertEquals(expected[e][1],
+                    experiment.getProperty("LifeExpectancyMax"));
+            assertEquals(expected[e][2],
+                    experiment.getProperty("PercentBestLand"));
+            assertEquals(4, experiment.size());
+        }
+
+        Path manifest = directory.resolve("land-experiments.csv");
+        sweep.writeManifest(manifest, experiments);
+        List<String> lines = Files.readAllLines(manifest);
+        assertEquals(7, lines.size());
+        assertEquals("experiment,LifeExpectancyMin,LifeExpectancyMax," +
+                "PercentBestLand", lines.get(0));
+        assertEquals("land-4,50,100,15", lines.get(5));
+
+        Files.write(file, Arrays.asList("Name=wide",
+                "NumPeople=1:12", "MaxVision=1/2"));
+        assertThrows(IllegalArgumentException.class, () ->
+                new Sweep(file.toString()));
+        Files.write(file, Arrays.asList("Name=wide", "NumPeople=1:12"));
+        List<Properties> wide = new Sweep(file.toString()).getExperiments();
+        assertEquals("wide-00", wide.get(0).getProperty("RunName"));
+        assertEquals("wide-11", wide.get(11).getProperty("RunName"));
+    }
+
+    /**
+     * test restoring a checkpoint continues the run exactly, including the
+     * gini index of the ticks before the checkpoint, and a run not keeping
+     * the gini index of every tick refuses to checkpoint
+     */
+    @Test
+    void checkpointRestore(@TempDir Path directory) throws Exception {
+        Path checkpoint = directory.resolve("run.ckpt");
+        Properties overrides = new Properties();
+        overrides.setProperty("MaxTicks", "100");
+        overrides.setProperty("CheckpointAt", "40");
+        overrides.setProperty("CheckpointFile", checkpoint.toString());
+        List<Float> originalGini = runGini(overrides, 0, false);
+
+        Simulation restored = Simulation.create(checkpoint.toString(),
+                new Properties());
+        List<Float> restoredGini = new ArrayList<>();
+        restored.addSink((tick, gini) -> restoredGini.add(gini));
+        restored.setup();
+        assertEquals(40, restored.getTick());
+        restored.run();
+        assertEquals(originalGini, restoredGini);
+
+        Simulation unrecorded = Simulation.create(
+                Simulation.DEFAULT_PROPERTIES_FILE, new Properties());
+        unrecorded.setup();
+        assertThrows(IllegalStateException.class, () ->
+                unrecorded.saveCheckpoint(directory.resolve("none.ckpt")));
+    }
+
+    /**
+     * test a tiled checkpoint forked with a new seed gives each turtle the
+     * stream of its own id, continuing as a forked array checkpoint does
+     */
+    @Test
+    void tiledCheckpointFork(@TempDir Path directory) throws Exception {
+        List<Float> arrayGini = forkCheckpoint(directory, "array");
+        List<Float> tiledGini = forkCheckpoint(directory, "tiled");
+        assertEquals(arrayGini, tiledGini);
+    }
+
+    /**
+     * Checkpoint a run with split streams at tick 40, then restore it with
+     * another seed and run it to tick 100
+     *
+     * @return gini index of each tick of the forked run
+     */
+    private static List<Float> forkCheckpoint(Path directory, String engine)
+            throws Exception {
+        Path checkpoint = directory.resolve(engine + ".ckpt");
+        Properties overrides = new Properties();
+        overrides.setProperty("Engine", engine);
+        overrides.setProperty("RandomStreams", "split");
+        overrides.setProperty("TileSize", "7");
+        overrides.setProperty("MaxTicks", "100");
+        overrides.setProperty("CheckpointAt", "40");
+        overrides.setProperty("CheckpointFile", checkpoint.toString());
+        runGini(overrides, 0, false);
+        return runGini(Simulation.create(checkpoint.toString(),
+                new Properties()), 7, false);
+    }
+
+    /**
+     * test the coordinator retries a run whose worker is killed while
+     * holding its lease, on the relaunched worker, and records both
+     * attempts in runs.csv
+     */
+    @Test
+    void coordinatorRetriesKilledWorker(@TempDir Path directory)
+            throws Exception {
+        Properties overrides = new Properties();
+        // long enough for the worker to be killed before it finishes
+        overrides.setProperty("MaxTicks", "20000");
+        Coordinator coordinator = new Coordinator(overrides, directory,
+                30_000, 2);
+        List<BatchRunner.Experiment> experiments = new ArrayList<>();
+        experiments.add(new BatchRunner.Experiment(
+                Simulation.DEFAULT_PROPERTIES_FILE, null));
+        int[] failures = {-1};
+        Thread batch = new Thread(() -> {
+            try {
+                failures[0] = coordinator.runExperiments(experiments, 0, 0,
+                        Arrays.asList(false), 1, 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        batch.start();
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (coordinator.getNumLeases() == 0 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, coordinator.getNumLeases());
+        ProcessHandle worker = ProcessHandle.current().children()
+                .filter(ProcessHandle::isAlive).findFirst().orElseThrow();
+        worker.destroyForcibly();
+
+        batch.join(60_000);
+        assertFalse(batch.isAlive());
+        assertEquals(0, failures[0]);
+        assertEquals(2, coordinator.getNumLeases());
+        assertEquals(Arrays.asList("run,status,attempts,worker",
+                        "wealth-distrib-default-seed-0,done,2,worker-0"),
+                Files.readAllLines(directory.resolve("runs.csv")));
+        assertEquals(20002, Files.readAllLines(directory.resolve(
+                "wealth-distrib-default-seed-0.csv")).size());
+    }
+
+    /**
+     * test the coordinator keeps relaunching its worker while runs remain,
+     * when a run crashes the worker on every attempt and so uses up more
+     * launches than it has retries, and records that run as failed
+     */
+    @Test
+    void coordinatorOutlastsCrashingRun(@TempDir Path directory)
+            throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("MaxTicks", "50");
+        Coordinator coordinator = new Coordinator(overrides, directory,
+                30_000, 1);
+        // too many patches for the worker's heap, so it dies of an
+        // OutOfMemoryError rather than reporting a failure
+        Properties huge = new Properties();
+        huge.setProperty("RunName", "huge");
+        huge.setProperty("Engine", "array");
+        huge.setProperty("XPatches", "46000");
+        huge.setProperty("YPatches", "46000");
+        List<BatchRunner.Experiment> experiments = new ArrayList<>();
+        experiments.add(new BatchRunner.Experiment(
+                Simulation.DEFAULT_PROPERTIES_FILE, null));
+        experiments.add(new BatchRunner.Experiment(
+                Simulation.DEFAULT_PROPERTIES_FILE, huge));
+        int[] failures = {-1};
+        Thread batch = new Thread(() -> {
+            try {
+                failures[0] = coordinator.runExperiments(experiments, 0, 0,
+                        Arrays.asList(false), 1, 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        batch.setDaemon(true);
+        batch.start();
+
+        batch.join(60_000);
+        assertFalse(batch.isAlive());
+        assertEquals(1, failures[0]);
+        assertEquals(3, coordinator.getNumLeases());
+        assertEquals(Arrays.asList("run,status,attempts,worker",
+                        "wealth-distrib-default-seed-0,done,1,worker-0",
+                        "huge-seed-0,failed,2,worker-0"),
+                Files.readAllLines(directory.resolve("runs.csv")));
+    }
+}
@@ -3,20 +3,16 @@
 :: Batch script to build and run java wealth distribution models
 
 :: build model
-javac -d out src/World.java src/Turtle.java src/Patch.java src/Heading.java --class-path=src
+javac -d out src/World.java src/BatchRunner.java --class-path=src
 
 :: list of runs to use
 set runs=default 2 3 4 5 6 7 8 9 10 11 12
-set inheritance=true false
+set inheritance=true,false
 
-:: with/without inheritance
-for %%i in (%inheritance%) do (
-    :: for each run
-    for %%r in (%runs%) do (
-        echo %%r
-        :: for each random seed
-        for /l %%s in (0, 1, 100) do (
-            java -classpath out World props/wealth-distrib-%%r.properties %%s %%i
-        )
-    )
-)
\ No newline at end of file
+:: properties file for each run
+set props=
+for %%r in (%runs%) do call set props=%%props%% props/wealth-distrib-%%r.properties
+
+:: with/without inheritance, for each run, for each random seed 0-100,
+:: all within one JVM
+java -classpath out BatchRunner 0 100 %inheritance% %props%